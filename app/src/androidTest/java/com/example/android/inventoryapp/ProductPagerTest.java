@@ -0,0 +1,144 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductProvider;
+import com.example.android.inventoryapp.data.ProductProviderTest;
+import com.example.android.inventoryapp.data.TestDatabaseContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a {@link ProductPager} against a large catalog and counts the queries it makes, and the
+ * rows they read, to follow a sale.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductPagerTest {
+
+    private static final String LOG_TAG = ProductPagerTest.class.getSimpleName();
+
+    /** Products in the catalog */
+    private static final int PRODUCTS = 50000;
+
+    /** Products inserted per bulk insert while filling the catalog */
+    private static final int INSERT_BATCH = 1000;
+
+    private TestDatabaseContext mContext;
+    private CountingProvider mProvider;
+    private ProductPager mPager;
+
+    /** Snapshots delivered by the pager, in order */
+    private final BlockingQueue<ProductSnapshot> mSnapshots = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteProductDatabase();
+        mProvider = new CountingProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPager != null) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    mPager.stop();
+                }
+            });
+        }
+        mProvider.shutdown();
+        mContext.deleteProductDatabase();
+    }
+
+    @Test
+    public void saleReadsOnlyTheSoldRow() throws Exception {
+        ContentValues[] batch = new ContentValues[INSERT_BATCH];
+        for (int inserted = 0; inserted < PRODUCTS; inserted += INSERT_BATCH) {
+            for (int i = 0; i < INSERT_BATCH; i++) {
+                // Stocked above the reorder point, so the sale raises no alert
+                batch[i] = ProductProviderTest.productValues("Product " + (inserted + i), 50);
+            }
+            assertEquals(INSERT_BATCH, mProvider.bulkInsert(ProductEntry.CONTENT_URI, batch));
+        }
+
+        // The pager queries the provider directly; the provider notifies through the system, as in the app
+        final MockContentResolver resolver = new MockContentResolver(mContext);
+        resolver.addProvider(ProductContract.CONTENT_AUTHORITY, mProvider);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPager = new ProductPager(resolver, new ProductPager.Listener() {
+                    @Override
+                    public void onProductsChanged(ProductSnapshot snapshot) {
+                        mSnapshots.add(snapshot);
+                    }
+                });
+                mPager.start(ProductFilter.DEFAULT);
+            }
+        });
+        ProductSnapshot loaded = awaitSnapshot();
+        assertEquals(ProductPager.PAGE_SIZE, loaded.getCount());
+        int loadQueries = mProvider.mQueries.getAndSet(0);
+        int loadRows = mProvider.mRows.getAndSet(0);
+
+        long id = loaded.getId(0);
+        ContentValues sale = new ContentValues();
+        sale.put(ProductContract.KEY_DELTA, -1);
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), sale, null, null));
+        ProductSnapshot patched = awaitSnapshot();
+        int saleQueries = mProvider.mQueries.get();
+        int saleRows = mProvider.mRows.get();
+
+        Log.i(LOG_TAG, "loading the list: " + loadQueries + " queries, " + loadRows + " rows; a sale: "
+                + saleQueries + " queries, " + saleRows + " rows, with " + PRODUCTS + " products");
+        assertEquals(loaded.getQuantity(0) - 1, patched.getQuantity(0));
+        assertEquals(loaded.getCount(), patched.getCount());
+        assertEquals(1, saleQueries);
+        assertEquals(1, saleRows);
+    }
+
+    private ProductSnapshot awaitSnapshot() throws InterruptedException {
+        ProductSnapshot snapshot = mSnapshots.poll(30, TimeUnit.SECONDS);
+        assertNotNull("the pager didn't deliver the rows", snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Provider counting the queries made to it and the rows they read.
+     */
+    private static class CountingProvider extends ProductProvider {
+        final AtomicInteger mQueries = new AtomicInteger();
+        final AtomicInteger mRows = new AtomicInteger();
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            Cursor cursor = super.query(uri, projection, selection, selectionArgs, sortOrder);
+            mQueries.incrementAndGet();
+            if (cursor != null) {
+                mRows.addAndGet(cursor.getCount());
+            }
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports a large catalog through the provider's export pipe and checks the memory it takes
+ * doesn't grow with the catalog.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogExporterTest {
+
+    private static final String LOG_TAG = CatalogExporterTest.class.getSimpleName();
+
+    /** Products in the exported catalog */
+    private static final int PRODUCTS = 100000;
+
+    /** Products inserted per bulk insert while filling the catalog */
+    private static final int INSERT_BATCH = 1000;
+
+    /** Most the heap may grow by while the catalog is exported, in bytes */
+    private static final long MAX_HEAP_GROWTH = 4 * 1024 * 1024;
+
+    private Context mContext;
+    private ProductProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void exportKeepsTheHeapFlat() throws Exception {
+        ContentValues[] batch = new ContentValues[INSERT_BATCH];
+        for (int inserted = 0; inserted < PRODUCTS; inserted += INSERT_BATCH) {
+            for (int i = 0; i < INSERT_BATCH; i++) {
+                // Stocked above the reorder point, so filling the catalog raises no alerts
+                batch[i] = ProductProviderTest.productValues("Product " + (inserted + i), 50);
+            }
+            assertEquals(INSERT_BATCH, mProvider.bulkInsert(ProductEntry.CONTENT_URI, batch));
+        }
+        batch = null;
+
+        long baseline = usedHeap();
+        long peak = baseline;
+        long bytes = 0;
+        int lines = 0;
+        ParcelFileDescriptor pipe = mProvider.openFile(ProductEntry.buildExportUri(ProductContract.EXPORT_CSV), "r");
+        InputStream input = new ParcelFileDescriptor.AutoCloseInputStream(pipe);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                bytes += line.length() + 2;
+                // Sample the heap ten times over the export, while the writer is still going
+                if (++lines % (PRODUCTS / 10) == 0) {
+                    peak = Math.max(peak, usedHeap());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Log.i(LOG_TAG, "exported " + bytes + " bytes, heap grew by " + (peak - baseline) + " bytes");
+        // The header and one line per product
+        assertEquals(PRODUCTS + 1, lines);
+        assertTrue("heap grew by " + (peak - baseline) + " bytes", peak - baseline < MAX_HEAP_GROWTH);
+        assertTrue("the export should be larger than the allowed growth", bytes > MAX_HEAP_GROWTH);
+    }
+
+    /**
+     * Heap in use once the garbage is collected, in bytes.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the connection settings, upgrades a database from every earlier version to check it ends
+ * up like a new one, and measures what moving the suppliers to their own table saves.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbHelperTest {
+
+    private static final String LOG_TAG = ProductDbHelperTest.class.getSimpleName();
+
+    /** The products table as version 1 created it */
+    private static final String SQL_CREATE_V1_PRODUCTS = "CREATE TABLE products ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "supplier_name TEXT NOT NULL, "
+            + "supplier_email TEXT NOT NULL, "
+            + "description TEXT, "
+            + "quantity INTEGER NOT NULL, "
+            + "price REAL NOT NULL DEFAULT 0.0,"
+            + "image TEXT);";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromEveryVersion() {
+        ProductDbHelper fresh = new ProductDbHelper(mContext);
+        List<String> expectedSchema = readSchema(fresh);
+        fresh.close();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+
+        for (int version = 1; version < ProductDbHelper.DATABASE_VERSION; version++) {
+            ProductDbHelper helper = new ProductDbHelper(mContext);
+            createDatabase(helper, version);
+
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(ProductDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("schema upgraded from " + version, expectedSchema, readSchema(helper));
+
+            Cursor cursor = db.query(ProductEntry.VIEW_NAME, null, null, null, null, null,
+                    ProductEntry._ID);
+            try {
+                assertEquals("products upgraded from " + version, 2, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals("Widget", cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME)));
+                assertEquals("Acme", cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)));
+                assertEquals("acme@example.com",
+                        cursor.getString(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL)));
+                assertEquals(7, cursor.getInt(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY)));
+                assertEquals(2.5f, cursor.getFloat(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE)), 0f);
+                cursor.moveToNext();
+                assertEquals(cursor.getLong(cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID)),
+                        readSupplierId(db, "Acme"));
+            } finally {
+                cursor.close();
+            }
+
+            // The full-text index and its triggers survive the upgrade
+            assertEquals(1, count(db, "SELECT COUNT(*) FROM " + ProductEntry.FTS_TABLE_NAME
+                    + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH 'gadget'"));
+
+            helper.close();
+            mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void connectionIsConfigured() {
+        ProductDbConfig config = new ProductDbConfig(true, ProductDbConfig.SYNCHRONOUS_FULL, 1024, 0);
+        ProductDbHelper helper = new ProductDbHelper(mContext, config);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals("wal", readPragma(db, "journal_mode"));
+            assertEquals(String.valueOf(ProductDbConfig.SYNCHRONOUS_FULL), readPragma(db, "synchronous"));
+            assertEquals("-1024", readPragma(db, "cache_size"));
+            assertEquals("0", readPragma(db, "mmap_size"));
+            assertEquals("1", readPragma(db, "foreign_keys"));
+            // A new file is created ready for incremental vacuum
+            assertEquals("2", readPragma(db, "auto_vacuum"));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void olderFileIsConvertedToIncrementalVacuum() {
+        ProductDbHelper helper = new ProductDbHelper(mContext);
+        createDatabase(helper, 1);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(ProductDbHelper.DATABASE_NAME, 0, null);
+        try {
+            // Created before auto_vacuum was set
+            assertEquals("0", readPragma(db, "auto_vacuum"));
+        } finally {
+            db.close();
+        }
+
+        try {
+            db = helper.getWritableDatabase();
+            assertEquals(String.valueOf(ProductDbHelper.AUTO_VACUUM_INCREMENTAL), readPragma(db, "auto_vacuum"));
+            assertEquals(2, count(db, "SELECT COUNT(*) FROM " + ProductEntry.TABLE_NAME));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void normalizedSuppliersTakeLessSpaceAndUpdateFaster() {
+        final int products = 100000;
+        final int suppliers = 100;
+        ProductDbHelper helper = new ProductDbHelper(mContext);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(ProductDbHelper.DATABASE_NAME, 0, null);
+        try {
+            db.execSQL(SQL_CREATE_V1_PRODUCTS);
+            db.beginTransaction();
+            try {
+                SQLiteStatement insert = db.compileStatement("INSERT INTO products (name, supplier_name, "
+                        + "supplier_email, description, quantity, price) VALUES (?, ?, ?, ?, 50, 2.5)");
+                for (int i = 0; i < products; i++) {
+                    int supplier = i % suppliers;
+                    insert.bindString(1, "Product " + i);
+                    insert.bindString(2, "Supplier number " + supplier);
+                    insert.bindString(3, "orders.supplier" + supplier + "@example.com");
+                    insert.bindString(4, "Product " + i + " description");
+                    insert.executeInsert();
+                }
+                insert.close();
+                // The last version that kept the supplier on every product
+                helper.onUpgrade(db, 1, 3);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long denormalizedBytes = fileSize(db);
+            long start = System.nanoTime();
+            db.execSQL("UPDATE products SET supplier_email = 'sales@example.com' "
+                    + "WHERE supplier_name = 'Supplier number 7' AND supplier_email = 'orders.supplier7@example.com'");
+            long denormalizedUpdateNanos = System.nanoTime() - start;
+
+            db.beginTransaction();
+            try {
+                helper.onUpgrade(db, 3, 4);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long normalizedBytes = fileSize(db);
+            start = System.nanoTime();
+            db.execSQL("UPDATE suppliers SET email = 'orders@example.com' WHERE name = 'Supplier number 8'");
+            long normalizedUpdateNanos = System.nanoTime() - start;
+
+            Log.i(LOG_TAG, products + " products: " + denormalizedBytes + " bytes with the supplier on every "
+                    + "product, " + normalizedBytes + " bytes with a suppliers table; changing a supplier's email took "
+                    + denormalizedUpdateNanos / 1000 + " us and " + normalizedUpdateNanos / 1000 + " us");
+            assertTrue(normalizedBytes < denormalizedBytes);
+            assertTrue(normalizedUpdateNanos < denormalizedUpdateNanos);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Create a database at the given version, holding two products of the same supplier.
+     */
+    private void createDatabase(ProductDbHelper helper, int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(ProductDbHelper.DATABASE_NAME, 0, null);
+        try {
+            db.execSQL(SQL_CREATE_V1_PRODUCTS);
+            insertV1Product(db, "Widget", 7, 2.5f);
+            insertV1Product(db, "Gadget", 3, 10f);
+            helper.onUpgrade(db, 1, version);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void insertV1Product(SQLiteDatabase db, String name, int quantity, float price) {
+        ContentValues values = new ContentValues();
+        values.put("name", name);
+        values.put("supplier_name", "Acme");
+        values.put("supplier_email", "acme@example.com");
+        values.put("description", name + " description");
+        values.put("quantity", quantity);
+        values.put("price", price);
+        assertTrue(db.insert("products", null, values) != -1);
+    }
+
+    private static long readSupplierId(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT _id FROM suppliers WHERE name = ?", new String[]{name});
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Size of the database file once the free pages are dropped, in bytes.
+     */
+    private static long fileSize(SQLiteDatabase db) {
+        db.execSQL("VACUUM");
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    private static int count(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String readPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0).toLowerCase();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the definition of every table, index, view and trigger, in name order.
+     */
+    private static List<String> readSchema(ProductDbHelper helper) {
+        Cursor cursor = helper.getReadableDatabase().rawQuery(
+                "SELECT type, name, sql FROM sqlite_master ORDER BY name", null);
+        List<String> schema = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the provider against a database of its own. The numbers are logged; the assertions
+ * only check the difference each measurement is about, so they hold on slow devices too.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderBenchmarkTest {
+
+    private static final String LOG_TAG = ProductProviderBenchmarkTest.class.getSimpleName();
+
+    private Context mContext;
+    private ProductProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void bulkInsertIsFasterThanSingleInserts() {
+        int rows = 1000;
+        ContentValues[] values = buildProducts(rows);
+
+        long start = System.nanoTime();
+        for (ContentValues row : values) {
+            assertNotNull(mProvider.insert(ProductEntry.CONTENT_URI, row));
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        assertEquals(rows, mProvider.bulkInsert(ProductEntry.CONTENT_URI, values));
+        long bulkNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "insert: " + rowsPerSecond(rows, singleNanos) + " rows/s, bulkInsert: "
+                + rowsPerSecond(rows, bulkNanos) + " rows/s");
+        assertTrue("bulkInsert took " + bulkNanos + " ns, single inserts " + singleNanos + " ns",
+                bulkNanos < singleNanos);
+    }
+
+    @Test
+    public void batchIsFasterThanSingleInserts() throws Exception {
+        int rows = 1000;
+        ContentValues[] values = buildProducts(rows);
+
+        long start = System.nanoTime();
+        for (ContentValues row : values) {
+            assertNotNull(mProvider.insert(ProductEntry.CONTENT_URI, row));
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>(rows);
+        for (ContentValues row : values) {
+            batch.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI).withValues(row).build());
+        }
+        start = System.nanoTime();
+        assertEquals(rows, mProvider.applyBatch(batch).length);
+        long batchNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "insert: " + rowsPerSecond(rows, singleNanos) + " rows/s, applyBatch: "
+                + rowsPerSecond(rows, batchNanos) + " rows/s");
+        assertTrue("applyBatch took " + batchNanos + " ns, single inserts " + singleNanos + " ns",
+                batchNanos < singleNanos);
+    }
+
+    @Test
+    public void readsRunWhileSalesAreWritten() throws Exception {
+        final int products = 2000;
+        // An even number, so the alternating sales and returns cancel out
+        final int sales = 500;
+        final int reads = 200;
+        assertEquals(products, mProvider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(products)));
+        final long id = readFirstId();
+        int quantity = readQuantity(id);
+
+        final long[] writeNanos = new long[sales];
+        final long[] readNanos = new long[reads];
+        final AtomicInteger readsDuringWrites = new AtomicInteger();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                awaitQuietly(start);
+                for (int i = 0; i < sales; i++) {
+                    ContentValues values = new ContentValues();
+                    values.put(ProductContract.KEY_DELTA, i % 2 == 0 ? 1 : -1);
+                    long begin = System.nanoTime();
+                    mProvider.update(ProductEntry.buildAdjustUri(id), values, null, null);
+                    writeNanos[i] = System.nanoTime() - begin;
+                }
+                writing.set(false);
+            }
+        };
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                awaitQuietly(start);
+                Uri page = ProductEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(ProductContract.PARAM_LIMIT, "50").build();
+                for (int i = 0; i < reads; i++) {
+                    long begin = System.nanoTime();
+                    Cursor cursor = mProvider.query(page, null, null, null, null);
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                    readNanos[i] = System.nanoTime() - begin;
+                    if (writing.get()) {
+                        readsDuringWrites.incrementAndGet();
+                    }
+                }
+            }
+        };
+        writer.start();
+        reader.start();
+        start.countDown();
+        writer.join();
+        reader.join();
+
+        Log.i(LOG_TAG, "sale p50 " + percentile(writeNanos, 50) / 1000 + " us, p99 "
+                + percentile(writeNanos, 99) / 1000 + " us; page read p50 " + percentile(readNanos, 50) / 1000
+                + " us, p99 " + percentile(readNanos, 99) / 1000 + " us; " + readsDuringWrites.get()
+                + " reads while writing");
+        // Readers aren't locked out by the writer
+        assertTrue(readsDuringWrites.get() > 0);
+        // Every sale was added back
+        assertEquals(quantity, readQuantity(id));
+    }
+
+    @Test
+    public void alertCostDoesntGrowWithTheCatalog() {
+        int rounds = 100;
+        Uri uri = mProvider.insert(ProductEntry.CONTENT_URI,
+                ProductProviderTest.productValues("Widget", ProductEntry.DEFAULT_REORDER_POINT + 1));
+        long id = ContentUris.parseId(uri);
+        assertEquals(1000, mProvider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(1000)));
+        long smallNanos = timeAlertingSales(id, rounds);
+
+        for (int i = 0; i < 49; i++) {
+            assertEquals(1000, mProvider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(1000)));
+        }
+        long largeNanos = timeAlertingSales(id, rounds);
+
+        Log.i(LOG_TAG, "sale raising an alert: " + smallNanos / rounds / 1000 + " us with 1000 products, "
+                + largeNanos / rounds / 1000 + " us with 50000 products");
+        // Only the sold product is evaluated, so 50 times the products takes nowhere near 50 times longer
+        assertTrue("1000 products took " + smallNanos + " ns, 50000 products " + largeNanos + " ns",
+                largeNanos < smallNanos * 4);
+        assertEquals(ProductEntry.DEFAULT_REORDER_POINT + 1, readQuantity(id));
+    }
+
+    @Test
+    public void chunkedDeleteHoldsTheLockBrieflyAndReclaimsTheFile() {
+        int products = 20000;
+        int chunkSize = 500;
+        insertProducts(products);
+        long start = System.nanoTime();
+        assertEquals(products, mProvider.delete(ProductEntry.CONTENT_URI, null, null));
+        long wholeNanos = System.nanoTime() - start;
+
+        insertProducts(products);
+        long filledPages = readPageCount();
+        Uri chunkUri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductContract.PARAM_LIMIT, String.valueOf(chunkSize)).build();
+        long longestChunkNanos = 0;
+        int deleted = 0;
+        int chunk;
+        do {
+            start = System.nanoTime();
+            chunk = mProvider.delete(chunkUri, null, null);
+            longestChunkNanos = Math.max(longestChunkNanos, System.nanoTime() - start);
+            deleted += chunk;
+        } while (chunk == chunkSize);
+        assertEquals(products, deleted);
+
+        Bundle result = mProvider.call(ProductContract.METHOD_RECLAIM_SPACE, null, null);
+        long reclaimedPages = readPageCount();
+
+        Log.i(LOG_TAG, "deleting " + products + " products: " + wholeNanos / 1000 + " us in one statement, "
+                + longestChunkNanos / 1000 + " us for the longest chunk of " + chunkSize + "; "
+                + filledPages + " pages before reclaiming, " + reclaimedPages + " after");
+        // The write lock is held per chunk, never for the whole delete
+        assertTrue("longest chunk took " + longestChunkNanos + " ns, the whole delete " + wholeNanos + " ns",
+                longestChunkNanos < wholeNanos);
+        assertTrue(result.getInt(ProductContract.KEY_FREED_PAGES) > 0);
+        // What's left is the stock ledger, which outlives the products
+        assertTrue("the file still has " + reclaimedPages + " of its " + filledPages + " pages",
+                reclaimedPages < filledPages);
+    }
+
+    /**
+     * Sells one of the product, taking it to its reorder point and raising an alert, then returns
+     * it, the given number of times. Returns the time taken, in nanoseconds.
+     */
+    private long timeAlertingSales(long id, int rounds) {
+        ContentValues sale = new ContentValues();
+        sale.put(ProductContract.KEY_DELTA, -1);
+        ContentValues refund = new ContentValues();
+        refund.put(ProductContract.KEY_DELTA, 1);
+        Uri adjust = ProductEntry.buildAdjustUri(id);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            assertEquals(1, mProvider.update(adjust, sale, null, null));
+            assertEquals(1, mProvider.update(adjust, refund, null, null));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void insertProducts(int count) {
+        for (int inserted = 0; inserted < count; inserted += 1000) {
+            assertEquals(1000, mProvider.bulkInsert(ProductEntry.CONTENT_URI, buildProducts(1000)));
+        }
+    }
+
+    /**
+     * Size of the database file, in pages, read on a connection of its own.
+     */
+    private long readPageCount() {
+        ProductDbHelper dbHelper = new ProductDbHelper(mContext);
+        try {
+            return DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(), "PRAGMA page_count", null);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private static ContentValues[] buildProducts(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            // Stocked above the reorder point, so no alerts are raised
+            values[i] = ProductProviderTest.productValues("Product " + i, 50 + i % 50);
+        }
+        return values;
+    }
+
+    private long readFirstId() {
+        Cursor cursor = mProvider.query(ProductEntry.CONTENT_URI, new String[] { ProductEntry._ID },
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readQuantity(long id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The given percentile of the measured times, in nanoseconds.
+     */
+    private static long percentile(long[] nanos, int percent) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return rows * 1000000000L / Math.max(nanos, 1);
+    }
+}
@@ -0,0 +1,507 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.RollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes through the provider, against a database of its own.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderTest {
+
+    private Context mContext;
+    private ProductProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void refusedAdjustmentKeepsTheRestOfTheBatch() throws Exception {
+        long id = insertProduct("Widget", 1);
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(adjust(id, -5).build());
+        batch.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(productValues("Gadget", 3)).build());
+        ContentProviderResult[] results = mProvider.applyBatch(batch);
+
+        assertEquals(Integer.valueOf(0), results[0].count);
+        assertNotNull(results[1].uri);
+        assertEquals(1, readQuantity(id));
+        assertEquals(3, readQuantity(ContentUris.parseId(results[1].uri)));
+    }
+
+    @Test
+    public void refusedAdjustmentWithExpectedCountFailsTheBatch() throws Exception {
+        long id = insertProduct("Widget", 1);
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                .withValues(productValues("Gadget", 3)).build());
+        batch.add(adjust(id, -5).withExpectedCount(1).build());
+        try {
+            mProvider.applyBatch(batch);
+            fail("The refused adjustment should fail the batch");
+        } catch (OperationApplicationException expected) {
+            // The insert before it is rolled back
+        }
+
+        Cursor cursor = mProvider.query(ProductEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(1, readQuantity(id));
+    }
+
+    @Test
+    public void batchResolvesBackReferencesAndNotifiesEachUriOnce() throws Exception {
+        final List<Uri> notified = Collections.synchronizedList(new ArrayList<Uri>());
+        final CountDownLatch expected = new CountDownLatch(3);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                notified.add(uri);
+                expected.countDown();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+            batch.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(productValues("Widget", 1)).build());
+            // Both updates find the product inserted above through a back-reference
+            batch.add(ContentProviderOperation.newUpdate(ProductEntry.CONTENT_URI)
+                    .withSelection(ProductEntry._ID + "=?", new String[1])
+                    .withSelectionBackReference(0, 0)
+                    .withValue(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, "Blue").build());
+            batch.add(ContentProviderOperation.newUpdate(ProductEntry.CONTENT_URI)
+                    .withSelection(ProductEntry._ID + "=?", new String[1])
+                    .withSelectionBackReference(0, 0)
+                    .withValue(ProductEntry.COLUMN_PRODUCT_PRICE, 4f).build());
+            batch.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(productValues("Gadget", 3)).build());
+            ContentProviderResult[] results = mProvider.applyBatch(batch);
+
+            assertEquals(Integer.valueOf(1), results[1].count);
+            assertEquals(Integer.valueOf(1), results[2].count);
+            long id = ContentUris.parseId(results[0].uri);
+            assertEquals("Blue", readString(id, ProductEntry.COLUMN_PRODUCT_DESCRIPTION));
+
+            // One notification for each new row and one for the list, whatever the number of writes
+            assertTrue(expected.await(5, TimeUnit.SECONDS));
+            Thread.sleep(500);
+            assertEquals(3, notified.size());
+            assertEquals(3, new HashSet<>(notified).size());
+            assertTrue(notified.contains(results[0].uri));
+            assertTrue(notified.contains(results[3].uri));
+            assertTrue(notified.contains(ProductEntry.CONTENT_URI));
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void concurrentAdjustmentsAreNotLost() throws Exception {
+        final long id = insertProduct("Widget", 50);
+        final int threads = 8;
+        final int adjustmentsPerThread = 10;
+
+        // Half the threads add and half remove, so the quantity ends where it started
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger refused = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int delta = t % 2 == 0 ? 1 : -1;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < adjustmentsPerThread; i++) {
+                        if (mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(delta), null, null) == 0) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // The quantity starts far enough from both bounds that no adjustment can be refused
+        assertEquals(0, refused.get());
+        assertEquals(50, readQuantity(id));
+    }
+
+    @Test
+    public void concurrentRemovalsStopAtZero() throws Exception {
+        final long id = insertProduct("Widget", 10);
+        final int threads = 20;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger applied = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(-1), null, null) == 1) {
+                        applied.incrementAndGet();
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(10, applied.get());
+        assertEquals(0, readQuantity(id));
+    }
+
+    @Test
+    public void adjustmentAboveTheMaximumIsRefused() {
+        long id = insertProduct("Widget", ProductValidator.MAX_QUANTITY - 1);
+        assertEquals(0, mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(5), null, null));
+        assertEquals(ProductValidator.MAX_QUANTITY - 1, readQuantity(id));
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(1), null, null));
+        assertEquals(ProductValidator.MAX_QUANTITY, readQuantity(id));
+
+        // A quantity stored above the maximum can still be sold down
+        long overstockedId = insertProduct("Gadget", ProductValidator.MAX_QUANTITY + 10);
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(overstockedId), deltaValues(-1), null, null));
+        assertEquals(0, mProvider.update(ProductEntry.buildAdjustUri(overstockedId), deltaValues(1), null, null));
+        assertEquals(ProductValidator.MAX_QUANTITY + 9, readQuantity(overstockedId));
+    }
+
+    @Test
+    public void adjustmentWithATokenIsAppliedOnce() {
+        long id = insertProduct("Widget", 10);
+        ContentValues values = deltaValues(-3);
+        values.put(ProductContract.KEY_TOKEN, "sale-1");
+
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), values, null, null));
+        // Sent again, as after a process death: counts as done, but isn't applied twice
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), values, null, null));
+        assertEquals(7, readQuantity(id));
+
+        values.put(ProductContract.KEY_TOKEN, "sale-2");
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), values, null, null));
+        assertEquals(4, readQuantity(id));
+    }
+
+    @Test
+    public void refusedAdjustmentDoesNotUseItsToken() {
+        long id = insertProduct("Widget", 1);
+        ContentValues values = deltaValues(-3);
+        values.put(ProductContract.KEY_TOKEN, "sale-1");
+
+        assertEquals(0, mProvider.update(ProductEntry.buildAdjustUri(id), values, null, null));
+        values.put(ProductContract.KEY_DELTA, 2);
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), values, null, null));
+        assertEquals(3, readQuantity(id));
+    }
+
+    @Test
+    public void updateAtAStaleVersionIsRefused() {
+        long id = insertProduct("Widget", 1);
+        long version = readLong(id, ProductEntry.COLUMN_PRODUCT_VERSION);
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id).buildUpon()
+                .appendQueryParameter(ProductContract.PARAM_EXPECTED_VERSION, String.valueOf(version))
+                .build();
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, "First edit");
+        assertEquals(1, mProvider.update(uri, values, null, null));
+        assertEquals(version + 1, readLong(id, ProductEntry.COLUMN_PRODUCT_VERSION));
+
+        // A second editor read the row at the same version
+        values.put(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, "Second edit");
+        assertEquals(0, mProvider.update(uri, values, null, null));
+        assertEquals("First edit", readString(id, ProductEntry.COLUMN_PRODUCT_DESCRIPTION));
+        assertEquals(version + 1, readLong(id, ProductEntry.COLUMN_PRODUCT_VERSION));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateAtAnInvalidVersionIsRejected() {
+        long id = insertProduct("Widget", 1);
+        Uri uri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id).buildUpon()
+                .appendQueryParameter(ProductContract.PARAM_EXPECTED_VERSION, "latest")
+                .build();
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, "Edit");
+        mProvider.update(uri, values, null, null);
+    }
+
+    @Test
+    public void supplierUpdateIncrementsTheVersionOfItsProducts() {
+        long id = insertProduct("Widget", 1);
+        long version = readLong(id, ProductEntry.COLUMN_PRODUCT_VERSION);
+        long supplierId = readLong(id, ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Acme Inc");
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId),
+                values, null, null));
+
+        assertEquals(version + 1, readLong(id, ProductEntry.COLUMN_PRODUCT_VERSION));
+        assertEquals("Acme Inc", readString(id, ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+    }
+
+    @Test
+    public void duplicateSkuIsRefused() {
+        long id = insertProduct("Widget", "0012345");
+        ContentValues values = productValues("Gadget", 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, "0012345");
+        assertNull(mProvider.insert(ProductEntry.CONTENT_URI, values));
+
+        long otherId = insertProduct("Gadget", "0067890");
+        values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, "0012345");
+        try {
+            mProvider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, otherId), values, null, null);
+            fail("The SKU belongs to another product");
+        } catch (SQLiteConstraintException expected) {
+            // The update is rolled back
+        }
+        assertEquals("0067890", readString(otherId, ProductEntry.COLUMN_PRODUCT_SKU));
+
+        Cursor cursor = mProvider.query(ProductEntry.buildSkuUri("0012345"),
+                new String[] { ProductEntry._ID }, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(id, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void productsWithoutASkuDontCollide() {
+        // Each insert asserts it isn't refused
+        insertProduct("Widget", (String) null);
+        insertProduct("Gadget", (String) null);
+        insertProduct("Gizmo", 1);
+    }
+
+    @Test
+    public void quantityChangesAreRecordedInTheLedger() {
+        long id = insertProduct("Widget", 10);
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(-3), null, null));
+        // Refused, so neither the quantity nor the ledger changes
+        assertEquals(0, mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(-20), null, null));
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 3f);
+        // Not a quantity change
+        assertEquals(1, mProvider.update(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id), values, null, null));
+
+        Cursor cursor = mProvider.query(MovementEntry.CONTENT_URI,
+                new String[] { MovementEntry.COLUMN_MOVEMENT_DELTA, MovementEntry.COLUMN_MOVEMENT_QUANTITY },
+                MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " = ?", new String[] { String.valueOf(id) },
+                MovementEntry._ID);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToNext());
+            assertEquals(10, cursor.getInt(0));
+            assertEquals(10, cursor.getInt(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals(-3, cursor.getInt(0));
+            assertEquals(7, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+
+        // Summed over the buckets, in case the changes straddle two of them
+        for (Uri rollupUri : new Uri[] { RollupEntry.CONTENT_HOURLY_URI, RollupEntry.CONTENT_DAILY_URI }) {
+            cursor = mProvider.query(rollupUri, new String[] { "SUM(" + RollupEntry.COLUMN_ROLLUP_UNITS_IN + ")",
+                            "SUM(" + RollupEntry.COLUMN_ROLLUP_UNITS_OUT + ")",
+                            "SUM(" + RollupEntry.COLUMN_ROLLUP_MOVEMENT_COUNT + ")" },
+                    RollupEntry.COLUMN_ROLLUP_PRODUCT_ID + " = ?", new String[] { String.valueOf(id) }, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(10, cursor.getInt(0));
+                assertEquals(3, cursor.getInt(1));
+                assertEquals(2, cursor.getInt(2));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test
+    public void compactionDropsOnlyTheExpiredHistory() {
+        long id = insertProduct("Widget", 10);
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(-3), null, null));
+        assertEquals(1, mProvider.update(ProductEntry.buildAdjustUri(id), deltaValues(-2), null, null));
+
+        // Age the first two movements past their retention, and the hourly rollups past theirs
+        ProductDbHelper dbHelper = new ProductDbHelper(mContext);
+        try {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            database.execSQL("UPDATE " + MovementEntry.TABLE_NAME + " SET " + MovementEntry.COLUMN_MOVEMENT_CREATED_AT
+                    + " = " + MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " - ? WHERE " + MovementEntry._ID
+                    + " IN (SELECT " + MovementEntry._ID + " FROM " + MovementEntry.TABLE_NAME + " ORDER BY "
+                    + MovementEntry._ID + " LIMIT 2)",
+                    new Object[] { (MovementEntry.RETENTION_DAYS + 1) * DateUtils.DAY_IN_MILLIS });
+            database.execSQL("UPDATE " + RollupEntry.HOURLY_TABLE_NAME + " SET " + RollupEntry.COLUMN_ROLLUP_BUCKET_START
+                    + " = " + RollupEntry.COLUMN_ROLLUP_BUCKET_START + " - ?",
+                    new Object[] { (RollupEntry.HOURLY_RETENTION_DAYS + 1) * DateUtils.DAY_IN_MILLIS });
+        } finally {
+            dbHelper.close();
+        }
+
+        Bundle result = mProvider.call(ProductContract.METHOD_COMPACT_LEDGER, null, null);
+        assertTrue(result.getInt(ProductContract.KEY_DELETED_COUNT) >= 3);
+
+        Cursor cursor = mProvider.query(MovementEntry.CONTENT_URI,
+                new String[] { MovementEntry.COLUMN_MOVEMENT_DELTA }, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(-2, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(0, count(RollupEntry.CONTENT_HOURLY_URI));
+        // The daily rollups are the long-term history, and are kept
+        assertTrue(count(RollupEntry.CONTENT_DAILY_URI) > 0);
+
+        // Nothing left to drop
+        result = mProvider.call(ProductContract.METHOD_COMPACT_LEDGER, null, null);
+        assertEquals(0, result.getInt(ProductContract.KEY_DELETED_COUNT));
+    }
+
+    public static ContentValues productValues(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, name + " description");
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 2.5f);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Acme");
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, "acme@example.com");
+        return values;
+    }
+
+    private static ContentValues deltaValues(int delta) {
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.KEY_DELTA, delta);
+        return values;
+    }
+
+    private static ContentProviderOperation.Builder adjust(long id, int delta) {
+        return ContentProviderOperation.newUpdate(ProductEntry.buildAdjustUri(id))
+                .withValue(ProductContract.KEY_DELTA, delta);
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+        private long insertProduct(String name, int quantity) {
+        Uri uri = mProvider.insert(ProductEntry.CONTENT_URI, productValues(name, quantity));
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private long insertProduct(String name, String sku) {
+        ContentValues values = productValues(name, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+        Uri uri = mProvider.insert(ProductEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private int readQuantity(long id) {
+        return (int) readLong(id, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+    }
+
+    private long readLong(long id, String column) {
+        Cursor cursor = readProduct(id, column);
+        try {
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String readString(long id, String column) {
+        Cursor cursor = readProduct(id, column);
+        try {
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor readProduct(long id, String column) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                new String[] { column }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        return cursor;
+    }
+}
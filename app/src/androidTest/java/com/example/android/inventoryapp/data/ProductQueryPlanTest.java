@@ -0,0 +1,140 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the query plan of every sort, filter and page of the product list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductQueryPlanTest {
+
+    private static final String[] SORTS = { ProductContract.SORT_NAME, ProductContract.SORT_QUANTITY,
+            ProductContract.SORT_PRICE, ProductContract.SORT_SUPPLIER };
+
+    private static final String FILTER_NONE = "none";
+    private static final String FILTER_PRICE = "price";
+
+    private static final String[] FILTERS = { FILTER_NONE, ProductContract.PARAM_LOW_STOCK,
+            ProductContract.PARAM_SUPPLIER_ID, FILTER_PRICE };
+
+    private static final String PAGE_FIRST = "first";
+    private static final String PAGE_AFTER = "after";
+    private static final String PAGE_BEFORE = "before";
+
+    private static final String[] PAGES = { PAGE_FIRST, PAGE_AFTER, PAGE_BEFORE };
+
+    private Context mContext;
+    private ProductDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mDbHelper = new ProductDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void everyListQueryReadsThroughAnIndex() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        for (String sort : SORTS) {
+            for (String filter : FILTERS) {
+                for (String page : PAGES) {
+                    List<String> plan = explain(db, buildUri(sort, filter, page));
+                    String query = sort + "/" + filter + "/" + page + ": " + plan;
+                    for (String step : plan) {
+                        assertFalse("full scan in " + query, step.startsWith("SCAN") && !step.contains("USING"));
+                    }
+                    if (isIndexOrdered(sort, filter)) {
+                        assertFalse("sort in " + query, plan.toString().contains("TEMP B-TREE"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the rows come in the order of the index they're read from, as documented in
+     * {@link ProductContract}.
+     */
+    private static boolean isIndexOrdered(String sort, String filter) {
+        if (FILTER_PRICE.equals(filter)) {
+            return ProductContract.SORT_PRICE.equals(sort);
+        }
+        if (ProductContract.PARAM_SUPPLIER_ID.equals(filter)) {
+            return ProductContract.SORT_NAME.equals(sort) || ProductContract.SORT_SUPPLIER.equals(sort);
+        }
+        return true;
+    }
+
+    private static Uri buildUri(String sort, String filter, String page) {
+        Uri.Builder builder = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductContract.PARAM_SORT, sort)
+                .appendQueryParameter(ProductContract.PARAM_LIMIT, "50");
+
+        if (ProductContract.PARAM_LOW_STOCK.equals(filter)) {
+            builder.appendQueryParameter(ProductContract.PARAM_LOW_STOCK, "true");
+        } else if (ProductContract.PARAM_SUPPLIER_ID.equals(filter)) {
+            builder.appendQueryParameter(ProductContract.PARAM_SUPPLIER_ID, "1");
+        } else if (FILTER_PRICE.equals(filter)) {
+            builder.appendQueryParameter(ProductContract.PARAM_MIN_PRICE, "1")
+                    .appendQueryParameter(ProductContract.PARAM_MAX_PRICE, "5");
+        }
+
+        if (PAGE_FIRST.equals(page)) {
+            return builder.build();
+        }
+        boolean after = PAGE_AFTER.equals(page);
+        if (!ProductContract.SORT_NAME.equals(sort)) {
+            builder.appendQueryParameter(after ? ProductContract.PARAM_AFTER_VALUE
+                    : ProductContract.PARAM_BEFORE_VALUE, "3");
+        }
+        if (ProductContract.SORT_NAME.equals(sort) || ProductContract.SORT_SUPPLIER.equals(sort)) {
+            builder.appendQueryParameter(after ? ProductContract.PARAM_AFTER_NAME
+                    : ProductContract.PARAM_BEFORE_NAME, "Widget");
+        }
+        return builder.appendQueryParameter(after ? ProductContract.PARAM_AFTER_ID
+                : ProductContract.PARAM_BEFORE_ID, "7").build();
+    }
+
+    /**
+     * Read the steps of the query plan of the products query for the URI.
+     */
+    private static List<String> explain(SQLiteDatabase db, Uri uri) {
+        List<String> args = new ArrayList<>();
+        String sql = ProductProvider.buildProductsQuery(uri, null, null, null, null, args);
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args.toArray(new String[args.size()]));
+        List<String> plan = new ArrayList<>();
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.net.Uri;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes through the queue and the provider with a StrictMode policy on the main thread that
+ * kills the process on any disk read or write, so a write reaching the disk from the main thread
+ * fails the whole run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductWriteQueueTest {
+
+    private static final StrictMode.ThreadPolicy NO_DISK = new StrictMode.ThreadPolicy.Builder()
+            .detectDiskReads()
+            .detectDiskWrites()
+            .penaltyLog()
+            .penaltyDeath()
+            .build();
+
+    private Context mContext;
+    private ProductProvider mProvider;
+    private ProductWriteQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+
+        final MockContentResolver resolver = new MockContentResolver(mContext);
+        resolver.addProvider(ProductContract.CONTENT_AUTHORITY, mProvider);
+        mQueue = new ProductWriteQueue(new ContextWrapper(mContext) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void queuedWritesStayOffTheMainThread() throws Exception {
+        final List<ContentProviderResult> results = new ArrayList<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        final ProductWriteQueue.Callback callback = new ProductWriteQueue.Callback() {
+            @Override
+            public void onWriteDone(ContentProviderResult result) {
+                results.add(result);
+                done.countDown();
+            }
+
+            @Override
+            public void onWriteFailed(Exception e) {
+                error.set(e);
+                done.countDown();
+            }
+        };
+
+        runOnMainThreadWithoutDisk(new Runnable() {
+            @Override
+            public void run() {
+                mQueue.enqueue(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                        .withValues(ProductProviderTest.productValues("Widget", 10)).build(), callback);
+                mQueue.enqueue(ContentProviderOperation.newUpdate(ProductEntry.CONTENT_URI)
+                        .withValue(ProductEntry.COLUMN_PRODUCT_PRICE, 3f)
+                        .withSelection(ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[] { "Widget" })
+                        .build(), callback);
+                mQueue.enqueue(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                        .withValues(ProductProviderTest.productValues("Gadget", 5)).build(), callback);
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        assertNull(error.get());
+        assertEquals(3, results.size());
+        assertNotNull(results.get(0).uri);
+        assertEquals(Integer.valueOf(1), results.get(1).count);
+        assertNotNull(results.get(2).uri);
+    }
+
+    @Test
+    public void providerWriteOnTheMainThreadIsRefused() {
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        runOnMainThreadWithoutDisk(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mProvider.insert(ProductEntry.CONTENT_URI, ProductProviderTest.productValues("Widget", 10));
+                } catch (IllegalStateException e) {
+                    error.set(e);
+                }
+            }
+        });
+        // Refused before it reaches the disk, so StrictMode has nothing to report
+        assertNotNull("the write should be refused on the main thread", error.get());
+    }
+
+    @Test
+    public void providerWriteOnAWorkerThreadIsAllowed() throws Exception {
+        final AtomicReference<Uri> uri = new AtomicReference<>();
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                uri.set(mProvider.insert(ProductEntry.CONTENT_URI, ProductProviderTest.productValues("Widget", 10)));
+            }
+        };
+        worker.start();
+        worker.join();
+
+        assertNotNull(uri.get());
+        assertTrue(ContentUris.parseId(uri.get()) > 0);
+    }
+
+    /**
+     * Run on the main thread with {@link #NO_DISK} as its policy, then restore its policy.
+     */
+    private static void runOnMainThreadWithoutDisk(final Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy policy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(NO_DISK);
+                try {
+                    runnable.run();
+                } finally {
+                    StrictMode.setThreadPolicy(policy);
+                }
+            }
+        });
+    }
+}
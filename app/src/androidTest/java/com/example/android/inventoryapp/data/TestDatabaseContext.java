@@ -0,0 +1,49 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Context that keeps the databases of a test apart from those of the app, by prefixing their
+ * file names.
+ */
+public class TestDatabaseContext extends ContextWrapper {
+
+    private static final String PREFIX = "test.";
+
+    public TestDatabaseContext(Context base) {
+        super(base);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+        return super.openOrCreateDatabase(PREFIX + name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(PREFIX + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(PREFIX + name);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(PREFIX + name);
+    }
+
+    /**
+     * Delete the test's copy of the products database, for tests outside this package.
+     */
+    public boolean deleteProductDatabase() {
+        return deleteDatabase(ProductDbHelper.DATABASE_NAME);
+    }
+}
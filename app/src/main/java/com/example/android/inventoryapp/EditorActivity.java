@@ -17,6 +17,9 @@ package com.example.android.inventoryapp;
 
 import android.app.Activity;
 import android.app.LoaderManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.CursorLoader;
@@ -24,23 +27,20 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewTreeObserver;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
 import android.widget.EditText;
@@ -48,11 +48,13 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ProductContract;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductValidator;
+import com.example.android.inventoryapp.data.ProductWriteQueue;
+import com.example.android.inventoryapp.image.ImageLoader;
+import com.example.android.inventoryapp.image.ImageStore;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigDecimal;
 
 /**
@@ -65,11 +67,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private static final int PICK_IMAGE = 100;
 
-    /** maximum quantity allowed */
-    private static final int MIN_QUANTITY = 0;
-
     /** minimum quantity allowed */
-    private static final int MAX_QUANTITY = 100;
+    private static final int MIN_QUANTITY = ProductValidator.MIN_QUANTITY;
+
+    /** maximum quantity allowed */
+    private static final int MAX_QUANTITY = ProductValidator.MAX_QUANTITY;
 
     /** EditText field to enter the product's name */
     private EditText mNameEditText;
@@ -80,6 +82,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter the product's price */
     private EditText mPriceEditText;
 
+    /** EditText field to enter the product's reorder point */
+    private EditText mReorderPointEditText;
+
+    /** EditText field to enter the product's target stock */
+    private EditText mTargetStockEditText;
+
     /** EditText field to enter the product's quantity */
     private EditText mQuantityEditText;
 
@@ -89,6 +97,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter supplier email */
     private EditText mSupplierEmailEditText;
 
+    /** EditText field to enter the SKU, typed or scanned */
+    private EditText mSkuEditText;
+
     /** ImageView for the product's image */
     private ImageView mImageView;
 
@@ -113,8 +124,26 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** Flag that indicates if the product has changed */
     private boolean mProductHasChanged = false;
 
-    /** Product image URI */
-    private Uri mImageUri = null;
+    /**
+     * Product image: the {@link ImageStore} hash of the saved image, or the URI of an image that
+     * was just picked and still has to be imported into the store.
+     */
+    private String mImageSource = null;
+
+    /**
+     * The product as last shown in the form, keyed like {@link #readForm()}, to find the fields
+     * the user changed. Null until the product has been loaded.
+     */
+    private ContentValues mLoadedValues = null;
+
+    /** Version of the product as last shown in the form; the update is refused if it's stale */
+    private long mLoadedVersion;
+
+    /** Whether an update was refused and the product is being read again to find out why */
+    private boolean mConflictPending = false;
+
+    /** Save checking the SKU and importing the image, null when there's none */
+    private SaveProductTask mSaveTask;
 
     /** Click listener for the "pick image" fake button. */
     private View.OnClickListener mBrowseGalleryListener = new View.OnClickListener() {
@@ -299,6 +328,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mSaveTask != null) {
+            mSaveTask.detach();
+            mSaveTask = null;
+        }
+        super.onDestroy();
+    }
+
     /**
      * Called when the user clicks on the "back" button.
      */
@@ -338,9 +376,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 ProductEntry.COLUMN_PRODUCT_DESCRIPTION,
                 ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+                ProductEntry.COLUMN_PRODUCT_TARGET_STOCK,
                 ProductEntry.COLUMN_PRODUCT_IMAGE,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
-                ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL };
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+                ProductEntry.COLUMN_PRODUCT_SKU,
+                ProductEntry.COLUMN_PRODUCT_VERSION };
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -359,44 +401,78 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
 
+        if (mConflictPending) {
+            // The product read again after an update was refused: gone, or written elsewhere
+            mConflictPending = false;
+            if (!cursor.moveToFirst()) {
+                Toast.makeText(this, getString(R.string.editor_update_product_deleted), Toast.LENGTH_LONG).show();
+                finish();
+                return;
+            }
+            Toast.makeText(this, getString(R.string.editor_update_product_conflict), Toast.LENGTH_LONG).show();
+        }
+
         if (cursor.moveToFirst()) {
             // Find the columns of product attributes that we're interested in
             int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
             int descriptionColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_DESCRIPTION);
             int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
             int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+            int reorderPointColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_REORDER_POINT);
+            int targetStockColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_TARGET_STOCK);
             int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
             int supplierNameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
             int supplierEmailColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+            int skuColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SKU);
+            int versionColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_VERSION);
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
             String description = cursor.getString(descriptionColumnIndex);
             int quantity = cursor.getInt(quantityColumnIndex);
             float price = cursor.getFloat(priceColumnIndex);
+            int reorderPoint = cursor.getInt(reorderPointColumnIndex);
+            int targetStock = cursor.getInt(targetStockColumnIndex);
             String supplierName = cursor.getString(supplierNameColumnIndex);
             String supplierEmail = cursor.getString(supplierEmailColumnIndex);
+            String sku = cursor.getString(skuColumnIndex);
+            String image = cursor.getString(imageColumnIndex);
+
+            // The product was written elsewhere while the user is editing it: keep the edits and
+            // the version they're based on, so saving them is refused instead of overwriting
+            if (mLoadedValues != null && getDirtyValues(readForm()).size() > 0) {
+                return;
+            }
+
+            mLoadedValues = new ContentValues();
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, description);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+            // rounded like the form, so an untouched price with more decimals isn't seen as changed
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_PRICE, roundPrice(Float.toString(price)));
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT, reorderPoint);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_TARGET_STOCK, targetStock);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierName);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, supplierEmail);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+            mLoadedVersion = cursor.getLong(versionColumnIndex);
 
             // Update the views on the screen with the values from the database
             mNameEditText.setText(name);
             mDescriptionEditText.setText(description);
             mQuantityEditText.setText(Integer.toString(quantity));
             mPriceEditText.setText(Float.toString(price));
+            mReorderPointEditText.setText(Integer.toString(reorderPoint));
+            mTargetStockEditText.setText(Integer.toString(targetStock));
             mSupplierNameEditText.setText(supplierName);
             mSupplierEmailEditText.setText(supplierEmail);
+            mSkuEditText.setText(sku);
 
-            // handle image
-            String imageUriString = cursor.getString(imageColumnIndex);
-            if (!TextUtils.isEmpty(imageUriString)) {
-                mImageUri = Uri.parse(imageUriString);
-                ViewTreeObserver viewTreeObserver = mImageView.getViewTreeObserver();
-                viewTreeObserver.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-                    @Override
-                    public void onGlobalLayout() {
-                        mImageView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                        mImageView.setImageBitmap(getBitmapFromUri(mImageUri));
-                    }
-                });
+            // handle image: decoded in the background, or taken from the cache
+            if (!TextUtils.isEmpty(image)) {
+                mImageSource = image;
+                ImageLoader.details(this).load(image, mImageView);
             }
         }
     }
@@ -421,8 +497,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // if the activity was the image picker
         if (resultCode == RESULT_OK && requestCode == PICK_IMAGE) {
             Uri imageUri = data.getData();
-            mImageUri = imageUri;
-            mImageView.setImageURI(imageUri);
+            mImageSource = imageUri.toString();
+            ImageLoader.details(this).load(mImageSource, mImageView);
         }
     }
 
@@ -456,8 +532,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mDescriptionEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mPriceEditText.setOnTouchListener(mTouchListener);
+        mReorderPointEditText.setOnTouchListener(mTouchListener);
+        mTargetStockEditText.setOnTouchListener(mTouchListener);
         mSupplierNameEditText.setOnTouchListener(mTouchListener);
         mSupplierEmailEditText.setOnTouchListener(mTouchListener);
+        mSkuEditText.setOnTouchListener(mTouchListener);
 
         mBrowseGalleryButton.setOnClickListener(mBrowseGalleryListener);
         mOrderButton.setOnClickListener(mOrderListener);
@@ -506,8 +585,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mQuantityEditText      = (EditText) findViewById(R.id.edit_product_quantity);
         mIncrementEditText     = (EditText) findViewById(R.id.edit_product_increment);
         mPriceEditText         = (EditText) findViewById(R.id.edit_product_price);
+        mReorderPointEditText  = (EditText) findViewById(R.id.edit_product_reorder_point);
+        mTargetStockEditText   = (EditText) findViewById(R.id.edit_product_target_stock);
         mSupplierNameEditText  = (EditText) findViewById(R.id.edit_product_supplier_name);
         mSupplierEmailEditText = (EditText) findViewById(R.id.edit_product_supplier_email);
+        mSkuEditText           = (EditText) findViewById(R.id.edit_product_sku);
         mBrowseGalleryButton   = (RelativeLayout) findViewById(R.id.edit_product_browse_gallery);
         mOrderButton           = (RelativeLayout) findViewById(R.id.edit_product_order);
         mIncrementButton       = (Button) findViewById(R.id.button_increment);
@@ -563,21 +645,29 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     /**
-     * Delete a product with the current URI, show a Toast message and finish activity.
+     * Queue the deletion of the product with the current URI and finish activity. A Toast message
+     * tells the outcome once the write has been applied.
      */
     private void deleteProduct() {
-        int deletedProducts = getContentResolver().delete(mCurrentProductUri, null, null);
-        // Show a toast message depending on whether or not the insertion was successful
-        if (deletedProducts == 1) {
-            // Otherwise, the insertion was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_delete_product_successful), Toast.LENGTH_SHORT).show();
-        } else {
-            // If the new content URI is null, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_delete_product_failed), Toast.LENGTH_SHORT).show();
+        final Context context = getApplicationContext();
+        ProductWriteQueue.get(this).enqueue(ContentProviderOperation.newDelete(mCurrentProductUri).build(),
+                new ProductWriteQueue.Callback() {
+                    @Override
+                    public void onWriteDone(ContentProviderResult result) {
+                        if (result.count == 1) {
+                            ImageStore.get(context).sweepInBackground();
+                        }
+                        // Show a toast message depending on whether or not the deletion was successful
+                        Toast.makeText(context, result.count == 1 ? R.string.editor_delete_product_successful
+                                : R.string.editor_delete_product_failed, Toast.LENGTH_SHORT).show();
+                    }
 
-        }
+                    @Override
+                    public void onWriteFailed(Exception e) {
+                        Toast.makeText(context, R.string.editor_delete_product_failed, Toast.LENGTH_SHORT).show();
+                    }
+                });
         finish();
-        return;
     }
 
     /**
@@ -600,7 +690,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     /**
-     * Get user input from editor and save new product into database.
+     * Get user input from editor and save new product into database. A newly picked image is
+     * copied into the {@link ImageStore} first, in the background, and the product is then written
+     * through the {@link ProductWriteQueue}.
      */
     private void saveProduct() {
         // collect data from form
@@ -612,17 +704,74 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             return;
         }
 
-        Uri newUri = null;
-        int updatedProducts = 0;
-        if (mCurrentProductUri == null) {
-            // Insert a new product into the provider, returning the content URI for the new product.
-            newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-        } else {
-            updatedProducts = getContentResolver().update(mCurrentProductUri, values, null, null);
+        // nothing changed, so there's nothing to write
+        if (values.size() == 0) {
+            finish();
+            return;
+        }
+
+        if (mSaveTask != null) {
+            return;
+        }
+        mSaveTask = new SaveProductTask(this, values);
+        mSaveTask.execute();
+    }
+
+    /**
+     * Build the insert of a new product, or the update of an existing one.
+     * @param productUri      URI of the product, null for a new one
+     * @param expectedVersion version the changes are based on; the update is refused if it's stale
+     * @param values
+     */
+    private static ContentProviderOperation buildWrite(Uri productUri, long expectedVersion, ContentValues values) {
+        if (productUri == null) {
+            return ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI).withValues(values).build();
         }
+        // only update the row if nobody has written it since it was loaded
+        Uri uri = productUri.buildUpon()
+                .appendQueryParameter(ProductContract.PARAM_EXPECTED_VERSION, String.valueOf(expectedVersion))
+                .build();
+        return ContentProviderOperation.newUpdate(uri).withValues(values).build();
+    }
+
+    /**
+     * Queue the insert or update of the product, once its image is in the {@link ImageStore}.
+     * @param values
+     */
+    private void writeProduct(ContentValues values) {
+        final boolean insert = mCurrentProductUri == null;
+        final boolean imageReplaced = !insert && values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE);
+        ContentProviderOperation operation = buildWrite(mCurrentProductUri, mLoadedVersion, values);
+        ProductWriteQueue.get(this).enqueue(operation, new ProductWriteQueue.Callback() {
+            @Override
+            public void onWriteDone(ContentProviderResult result) {
+                if (insert) {
+                    onProductSaved(result.uri != null);
+                } else if (result.count == 0) {
+                    onProductConflict();
+                } else {
+                    if (imageReplaced) {
+                        // the previous image may not be used by any product anymore
+                        ImageStore.get(EditorActivity.this).sweepInBackground();
+                    }
+                    onProductSaved(true);
+                }
+            }
 
+            @Override
+            public void onWriteFailed(Exception e) {
+                onProductSaved(false);
+            }
+        });
+    }
+
+    /**
+     * Show the result of a save and leave the editor.
+     * @param saved
+     */
+    private void onProductSaved(boolean saved) {
         // Show a toast message depending on whether or not the insertion was successful
-        if (newUri != null || updatedProducts == 1) {
+        if (saved) {
             // Otherwise, the insertion was successful and we can display a toast.
             Toast.makeText(this, getString(R.string.editor_insert_product_successful), Toast.LENGTH_SHORT).show();
         } else {
@@ -634,156 +783,261 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     /**
-     * Builds ContentValues object.
-     * @return
+     * The update matched no row: the product was written elsewhere after it was loaded, or deleted.
+     * Read it again to tell which. A written product is shown as it is now, so the user can make
+     * the changes again on top of it; a deleted one closes the editor.
      */
-    @Nullable
-    private ContentValues getContentValues() {
-        // Read from input fields and trim trailing white space
-        String nameString          = mNameEditText.getText().toString().trim();
-        String descriptionString   = mDescriptionEditText.getText().toString().trim();
-        String quantityString      = mQuantityEditText.getText().toString().trim();
-        String priceString         = mPriceEditText.getText().toString().trim();
-        String supplierNameString  = mSupplierNameEditText.getText().toString().trim();
-        String supplierEmailString = mSupplierEmailEditText.getText().toString().trim();
-        String imageUriString      = mImageUri==null?null:mImageUri.toString();
+    private void onProductConflict() {
+        mConflictPending = true;
+        mLoadedValues = null;
+        mProductHasChanged = false;
+        getLoaderManager().restartLoader(PRODUCT_LOADER_ID, null, this);
+    }
 
-        // handle empty quantity
-        int quantity = 0;
-        if (!TextUtils.isEmpty(quantityString)) {
-            quantity = Integer.parseInt(quantityString);
+    /**
+     * Checks that a new SKU isn't taken, imports the picked image, if any, and then has the product
+     * written.
+     */
+    private static class SaveProductTask extends AsyncTask<Void, Void, Boolean> {
+        private final Context mContext;
+        private final ContentValues mValues;
+
+        /** URI of the product, null for a new one, and the version the changes are based on */
+        private final Uri mProductUri;
+        private final long mExpectedVersion;
+
+        /** Activity told about the outcome, null once it's destroyed. Only used on the UI thread. */
+        private EditorActivity mActivity;
+
+        /** Set when the SKU belongs to another product */
+        private boolean mSkuTaken = false;
+
+        SaveProductTask(EditorActivity activity, ContentValues values) {
+            mContext = activity.getApplicationContext();
+            mActivity = activity;
+            mValues = values;
+            mProductUri = activity.mCurrentProductUri;
+            mExpectedVersion = activity.mLoadedVersion;
         }
 
-        // handle empty price
-        float price = 0.0f;
-        if (!TextUtils.isEmpty(priceString)) {
-            BigDecimal bd = new BigDecimal(priceString);
-            bd = bd.setScale(2, BigDecimal.ROUND_HALF_UP);
-            price = bd.floatValue();
+        /**
+         * Let go of the activity. The product is still written, but the outcome isn't shown.
+         */
+        void detach() {
+            mActivity = null;
         }
 
-        if (TextUtils.isEmpty(nameString)) {
-            mErrorMessage = getString(R.string.product_name_required);
-            return null;
-        }
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            // an unchanged SKU isn't part of the update
+            String sku = mValues.getAsString(ProductEntry.COLUMN_PRODUCT_SKU);
+            if (sku != null && isSkuTaken(sku)) {
+                mSkuTaken = true;
+                return false;
+            }
 
-        if (TextUtils.isEmpty(descriptionString)) {
-            mErrorMessage = getString(R.string.product_description_required);
-            return null;
+            // an unchanged image isn't part of the update
+            String image = mValues.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE);
+            if (image != null && !ImageStore.isHash(image)) {
+                String hash = ImageStore.get(mContext).importImage(Uri.parse(image));
+                if (hash == null) {
+                    return false;
+                }
+                mValues.put(ProductEntry.COLUMN_PRODUCT_IMAGE, hash);
+            }
+            return true;
         }
 
-        if (getIntegerValueFromEditText(mQuantityEditText, MAX_QUANTITY) > MAX_QUANTITY) {
-            mErrorMessage = getString(R.string.product_maximum_quantity) + MAX_QUANTITY;
-            return null;
+        /**
+         * Whether another product already has the given SKU. The unique index would refuse the
+         * write anyway; checking first tells the user why.
+         */
+        private boolean isSkuTaken(String sku) {
+            Cursor cursor = mContext.getContentResolver().query(ProductEntry.buildSkuUri(sku),
+                    new String[] { ProductEntry._ID }, null, null, null);
+            if (cursor == null) {
+                return false;
+            }
+            try {
+                return cursor.moveToFirst() && (mProductUri == null
+                        || cursor.getLong(0) != ContentUris.parseId(mProductUri));
+            } finally {
+                cursor.close();
+            }
         }
 
-        if (getIntegerValueFromEditText(mQuantityEditText, MIN_QUANTITY) < MIN_QUANTITY) {
-            mErrorMessage = getString(R.string.product_minimum_quantity) + MIN_QUANTITY;
-            return null;
+        @Override
+        protected void onPostExecute(Boolean imported) {
+            if (mActivity == null) {
+                if (imported) {
+                    ProductWriteQueue.get(mContext).enqueue(buildWrite(mProductUri, mExpectedVersion, mValues), null);
+                }
+                return;
+            }
+            mActivity.mSaveTask = null;
+            if (imported) {
+                mActivity.writeProduct(mValues);
+            } else if (mSkuTaken) {
+                Toast.makeText(mActivity, mActivity.getString(R.string.product_sku_taken), Toast.LENGTH_LONG).show();
+            } else {
+                mActivity.onProductSaved(false);
+            }
         }
+    }
 
-        if (TextUtils.isEmpty(quantityString)) {
-            mErrorMessage = getString(R.string.product_quantity_required);
-            return null;
-        }
+    /**
+     * Builds ContentValues object. When editing a product, only the fields that changed since it
+     * was loaded are included.
+     * @return
+     */
+    @Nullable
+    private ContentValues getContentValues() {
+        ContentValues values = readForm();
 
-        if (TextUtils.isEmpty(priceString)) {
-            mErrorMessage = getString(R.string.product_price_required);
+        int error = ProductValidator.validate(values);
+        if (error != ProductValidator.VALID) {
+            mErrorMessage = getValidationMessage(error);
             return null;
         }
 
-
-        if (TextUtils.isEmpty(supplierNameString)) {
-            mErrorMessage = getString(R.string.supplier_name_required);
+        if (TextUtils.isEmpty(values.getAsString(ProductEntry.COLUMN_PRODUCT_IMAGE))) {
+            mErrorMessage = getString(R.string.product_image_required);
             return null;
         }
 
-        if (TextUtils.isEmpty(supplierEmailString)) {
-            mErrorMessage = getString(R.string.supplier_email_required);
-            return null;
-        }
+        return mLoadedValues == null ? values : getDirtyValues(values);
+    }
 
-        if (TextUtils.isEmpty(imageUriString)) {
-            mErrorMessage = getString(R.string.product_image_required);
-            return null;
-        }
+    /**
+     * Read the product from the form, without validating it.
+     * @return
+     */
+    private ContentValues readForm() {
+        // Read from input fields and trim trailing white space
+        String nameString          = mNameEditText.getText().toString().trim();
+        String descriptionString   = mDescriptionEditText.getText().toString().trim();
+        String quantityString      = mQuantityEditText.getText().toString().trim();
+        String priceString         = mPriceEditText.getText().toString().trim();
+        String reorderPointString  = mReorderPointEditText.getText().toString().trim();
+        String targetStockString   = mTargetStockEditText.getText().toString().trim();
+        String supplierNameString  = mSupplierNameEditText.getText().toString().trim();
+        String supplierEmailString = mSupplierEmailEditText.getText().toString().trim();
+        String skuString           = mSkuEditText.getText().toString().trim();
+        String imageString         = mImageSource;
 
         // Create a ContentValues object where column names are the keys,
         // and product attributes from the editor are the values.
         ContentValues values = new ContentValues();
         values.put(ProductEntry.COLUMN_PRODUCT_NAME, nameString);
         values.put(ProductEntry.COLUMN_PRODUCT_DESCRIPTION, descriptionString);
-        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
-        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, imageUriString);
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierNameString);
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, supplierEmailString);
+
+        // empty SKU is stored as null, since only the products that have one must differ
+        if (TextUtils.isEmpty(skuString)) {
+            values.putNull(ProductEntry.COLUMN_PRODUCT_SKU);
+        } else {
+            values.put(ProductEntry.COLUMN_PRODUCT_SKU, skuString);
+        }
+
+        // empty quantity is left out, and reported by the validation
+        if (!TextUtils.isEmpty(quantityString)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, Integer.parseInt(quantityString));
+        }
+
+        // empty price is left out, and reported by the validation
+        if (!TextUtils.isEmpty(priceString)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, roundPrice(priceString));
+        }
+
+        // empty reorder point is left out, so new products get the default one
+        if (!TextUtils.isEmpty(reorderPointString)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_REORDER_POINT, Integer.parseInt(reorderPointString));
+        }
+
+        // empty target stock is left out, so new products get the default one
+        if (!TextUtils.isEmpty(targetStockString)) {
+            values.put(ProductEntry.COLUMN_PRODUCT_TARGET_STOCK, Integer.parseInt(targetStockString));
+        }
+
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, imageString);
         return values;
     }
 
     /**
-     * Launch intent to select an image from gallery.
+     * Round a price to cents, the precision it's saved with.
+     * @param price
+     * @return
      */
-    private void openGallery() {
-        Intent galleryIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT, android.provider.MediaStore.Images.Media.INTERNAL_CONTENT_URI);
-        galleryIntent.addCategory(Intent.CATEGORY_OPENABLE);
-        galleryIntent.setType("image/*");
-
-        startActivityForResult(galleryIntent, PICK_IMAGE);
+    private static float roundPrice(String price) {
+        BigDecimal bd = new BigDecimal(price);
+        bd = bd.setScale(2, BigDecimal.ROUND_HALF_UP);
+        return bd.floatValue();
     }
 
     /**
-     * Get bitmap stored from URI
-     * @param uri
+     * Get the form values that differ from the product as loaded. The supplier name and email go
+     * together, since the provider needs both to find the supplier.
+     * @param values
      * @return
      */
-    private Bitmap getBitmapFromUri(Uri uri) {
-        if (uri == null || uri.toString().isEmpty())
-            return null;
-
-        // Get the dimensions of the View
-        int targetW = mImageView.getWidth();
-        int targetH = mImageView.getHeight();
-
-        InputStream input = null;
-        try {
-            input = this.getContentResolver().openInputStream(uri);
-
-            // Get the dimensions of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-
-            int photoW = bmOptions.outWidth;
-            int photoH = bmOptions.outHeight;
-
-            // Determine how much to scale down the image
-            int scaleFactor = Math.min(photoW / targetW, photoH / targetH);
+    private ContentValues getDirtyValues(ContentValues values) {
+        ContentValues dirty = new ContentValues(values);
+        for (String column : values.keySet()) {
+            Object value = values.get(column);
+            Object loaded = mLoadedValues.get(column);
+            if (value == null ? loaded == null : value.equals(loaded)) {
+                dirty.remove(column);
+            }
+        }
 
-            // Decode the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            bmOptions.inPurgeable = true;
+        if (dirty.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)
+                || dirty.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL)) {
+            dirty.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                    values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+            dirty.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+                    values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL));
+        }
+        return dirty;
+    }
 
-            input = this.getContentResolver().openInputStream(uri);
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-            return bitmap;
+    /**
+     * Get the message for a {@link ProductValidator} error.
+     * @param error
+     * @return
+     */
+    private String getValidationMessage(int error) {
+        switch (error) {
+            case ProductValidator.ERROR_NAME_REQUIRED:
+                return getString(R.string.product_name_required);
+            case ProductValidator.ERROR_DESCRIPTION_REQUIRED:
+                return getString(R.string.product_description_required);
+            case ProductValidator.ERROR_QUANTITY_REQUIRED:
+                return getString(R.string.product_quantity_required);
+            case ProductValidator.ERROR_QUANTITY_TOO_HIGH:
+                return getString(R.string.product_maximum_quantity) + MAX_QUANTITY;
+            case ProductValidator.ERROR_QUANTITY_TOO_LOW:
+                return getString(R.string.product_minimum_quantity) + MIN_QUANTITY;
+            case ProductValidator.ERROR_PRICE_REQUIRED:
+                return getString(R.string.product_price_required);
+            case ProductValidator.ERROR_SUPPLIER_NAME_REQUIRED:
+                return getString(R.string.supplier_name_required);
+            case ProductValidator.ERROR_SUPPLIER_EMAIL_REQUIRED:
+                return getString(R.string.supplier_email_required);
+            default:
+                throw new IllegalArgumentException("Unknown validation error " + error);
+        }
+    }
 
-        } catch (FileNotFoundException fne) {
-            Log.e(LOG_TAG, "Failed to load image.", fne);
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Failed to load image.", e);
-            return null;
-        } finally {
-            try {
-                input.close();
-            } catch (IOException ioe) {
+    /**
+     * Launch intent to select an image from gallery.
+     */
+    private void openGallery() {
+        Intent galleryIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT, android.provider.MediaStore.Images.Media.INTERNAL_CONTENT_URI);
+        galleryIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        galleryIntent.setType("image/*");
 
-            }
-        }
+        startActivityForResult(galleryIntent, PICK_IMAGE);
     }
 
     /**
@@ -1,37 +1,209 @@
 package com.example.android.inventoryapp;
 
-import android.app.LoaderManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.KeyEvent;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
+import com.example.android.inventoryapp.data.CatalogImporter;
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.OrderEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+import com.example.android.inventoryapp.data.ProductWriteQueue;
+import com.example.android.inventoryapp.data.SaleCoalescer;
+import com.example.android.inventoryapp.image.ImageStore;
 
-public class InventoryActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-    private static final int PRODUCT_LOADER_ID = 1;
-    private ProductCursorAdapter mProductAdapter;
+public class InventoryActivity extends AppCompatActivity
+        implements ProductPager.Listener, ProductAdapter.OnProductClickListener {
+
+    public static final String LOG_TAG = InventoryActivity.class.getSimpleName();
+
+    private static final int PICK_CATALOG = 200;
+
+    /** File the rows rejected by the last import are described in */
+    private static final String IMPORT_ERRORS_FILE = "import-errors.txt";
+
+    /** Time to wait after the last keystroke before running a search, in milliseconds */
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+
+    private ProductAdapter mProductAdapter;
+
+    /** Loads the product list page by page */
+    private ProductPager mProductPager;
+
+    /** List of products */
+    private RecyclerView mProductListView;
+
+    /** Layout manager of the product list */
+    private LinearLayoutManager mLayoutManager;
+
+    /** View shown when the list is empty */
+    private View mEmptyView;
+
+    /** Import running in the background, null when there's none */
+    private ImportCatalogTask mImportTask;
+
+    /** Dialog showing the import progress */
+    private AlertDialog mImportDialog;
+
+    /** Supplier load for the filter options, null when there's none */
+    private LoadSuppliersTask mLoadSuppliersTask;
+
+    /** Order generation running in the background, null when there's none */
+    private GenerateOrdersTask mGenerateOrdersTask;
+
+    /** Delete all running in the background, null when there's none */
+    private DeleteAllJob mDeleteAllJob;
+
+    /** Dialog showing the delete all progress */
+    private AlertDialog mDeleteAllDialog;
+
+    /** Scan entry in progress, null when there's none */
+    private ScanSession mScanSession;
+
+    /** Dialog the codes are scanned into */
+    private AlertDialog mScanDialog;
+
+    /** View showing the outcome of the last scan */
+    private TextView mScanStatusView;
+
+    /** Handler used to debounce the search box */
+    private final Handler mHandler = new Handler();
+
+    /** Search text the list is currently filtered by (null shows every product) */
+    private String mSearchText = null;
+
+    /** Sort and filters of the list */
+    private ProductFilter mFilter = ProductFilter.DEFAULT;
+
+    /** Reloads the list with the latest search text once the user stops typing */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mProductPager.setSearchText(mSearchText);
+        }
+    };
+
+    /** Loads more pages when the list gets close to either end of the loaded rows */
+    private final RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            int totalItemCount = mProductAdapter.getItemCount();
+            if (totalItemCount == 0) {
+                return;
+            }
+            if (mLayoutManager.findLastVisibleItemPosition() >= totalItemCount - ProductPager.PAGE_SIZE / 2) {
+                mProductPager.loadNext();
+            } else if (mLayoutManager.findFirstVisibleItemPosition() <= ProductPager.PAGE_SIZE / 2) {
+                mProductPager.loadPrevious();
+            }
+        }
+    };
+
+    /** Shows the empty view whenever the list runs out of rows */
+    private final RecyclerView.AdapterDataObserver mEmptyObserver = new RecyclerView.AdapterDataObserver() {
+        @Override
+        public void onChanged() {
+            updateEmptyView();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            updateEmptyView();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            updateEmptyView();
+        }
+    };
+
+    /** Listener for the search box in the toolbar */
+    private final SearchView.OnQueryTextListener mSearchListener = new SearchView.OnQueryTextListener() {
+        @Override
+        public boolean onQueryTextSubmit(String query) {
+            setSearchText(query, 0);
+            return true;
+        }
+
+        @Override
+        public boolean onQueryTextChange(String newText) {
+            setSearchText(newText, SEARCH_DEBOUNCE_MS);
+            return true;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_inventory);
 
+        mFilter = ProductFilter.restoreFrom(savedInstanceState);
         setAdapter();
         setFloatingActionButton();
-        getLoaderManager().initLoader(PRODUCT_LOADER_ID, null, this);
+        mProductPager.start(mFilter);
+
+        if (savedInstanceState == null) {
+            compactLedger();
+        }
+
+        // A delete all started before the configuration change carries on
+        DeleteAllJob deleteAllJob = (DeleteAllJob) getLastCustomNonConfigurationInstance();
+        if (deleteAllJob != null) {
+            mDeleteAllJob = deleteAllJob;
+            showDeleteAllDialog(deleteAllJob.mDeleted);
+            deleteAllJob.attach(this);
+        }
+    }
+
+    /**
+     * Keep the delete all running across a configuration change.
+     * @return
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mDeleteAllJob;
     }
 
     /**
@@ -43,9 +215,94 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_inventory, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.action_search));
+        searchView.setOnQueryTextListener(mSearchListener);
         return true;
     }
 
+    /**
+     * Check the sort the list is shown with.
+     * @param menu
+     * @return
+     */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        int sortItemId;
+        switch (mFilter.sort) {
+            case ProductContract.SORT_QUANTITY:
+                sortItemId = R.id.action_sort_quantity;
+                break;
+            case ProductContract.SORT_PRICE:
+                sortItemId = R.id.action_sort_price;
+                break;
+            case ProductContract.SORT_SUPPLIER:
+                sortItemId = R.id.action_sort_supplier;
+                break;
+            default:
+                sortItemId = R.id.action_sort_name;
+                break;
+        }
+        menu.findItem(sortItemId).setChecked(true);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        mFilter.saveTo(outState);
+    }
+
+    /**
+     * Write the collected SALE taps before the app goes to the background.
+     */
+    @Override
+    protected void onStop() {
+        SaleCoalescer.get(this).flush();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        SaleCoalescer.get(this).setListener(null);
+        mHandler.removeCallbacks(mSearchRunnable);
+        mProductPager.stop();
+        if (mImportTask != null) {
+            mImportTask.mImporter.cancel();
+            mImportTask.detach();
+            mImportTask = null;
+        }
+        if (mImportDialog != null) {
+            mImportDialog.dismiss();
+        }
+        if (mLoadSuppliersTask != null) {
+            mLoadSuppliersTask.detach();
+            mLoadSuppliersTask = null;
+        }
+        if (mGenerateOrdersTask != null) {
+            mGenerateOrdersTask.detach();
+            mGenerateOrdersTask = null;
+        }
+        if (mDeleteAllJob != null) {
+            if (!isChangingConfigurations()) {
+                // Leaving for good: stop after the chunk being deleted
+                mDeleteAllJob.cancel();
+            }
+            mDeleteAllJob.detach();
+            mDeleteAllJob = null;
+        }
+        if (mDeleteAllDialog != null) {
+            mDeleteAllDialog.dismiss();
+        }
+        if (mScanDialog != null) {
+            AlertDialog scanDialog = mScanDialog;
+            finishScanEntry();
+            scanDialog.dismiss();
+        }
+        super.onDestroy();
+    }
+
     /**
      * Handles when a item in the ListView is clicked.
      * @param item
@@ -59,55 +316,78 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
             case R.id.action_delete_all_entries:
                 deleteAllProducts();
                 return true;
+            // Respond to a click on the "Import catalog" menu option
+            case R.id.action_import_catalog:
+                pickCatalog();
+                return true;
+            // Respond to a click on the "Scan entry" menu option
+            case R.id.action_scan_entry:
+                startScanEntry();
+                return true;
+            // Respond to a click on the "Generate orders" menu option
+            case R.id.action_generate_orders:
+                generateOrders();
+                return true;
+            // Respond to a click on the "Export catalog" menu option
+            case R.id.action_export_catalog:
+                chooseExportFormat();
+                return true;
+            // Respond to a click on one of the "Sort by" options
+            case R.id.action_sort_name:
+                setFilter(mFilter.withSort(ProductContract.SORT_NAME));
+                return true;
+            case R.id.action_sort_quantity:
+                setFilter(mFilter.withSort(ProductContract.SORT_QUANTITY));
+                return true;
+            case R.id.action_sort_price:
+                setFilter(mFilter.withSort(ProductContract.SORT_PRICE));
+                return true;
+            case R.id.action_sort_supplier:
+                setFilter(mFilter.withSort(ProductContract.SORT_SUPPLIER));
+                return true;
+            // Respond to a click on the "Filter" menu option
+            case R.id.action_filter:
+                chooseFilter();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     /**
-     * Handles the cursor loader initialization.
-     * @param id
-     * @param args
-     * @return
+     * Handle the execution after returning from other activity.
+     * @param requestCode
+     * @param resultCode
+     * @param data
      */
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_DESCRIPTION,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_PRICE};
-
-        // Perform a query on the provider using the ContentResolver.
-        // Use the {@link PetEntry#CONTENT_URI} to access the pet data.
-        return new CursorLoader(
-                this,
-                ProductEntry.CONTENT_URI,   // The content URI of the words table
-                projection,             // The columns to return for each row
-                null,                   // Selection criteria
-                null,                   // Selection criteria
-                null);
-    }
-
-    /**
-     * Handles when the loader has finished.
-     * @param loader
-     * @param data
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        // if the activity was the catalog picker
+        if (resultCode == RESULT_OK && requestCode == PICK_CATALOG && data.getData() != null) {
+            importCatalog(data.getData());
+        }
+    }
+
+    /**
+     * Handles when the loaded products have changed.
+     * @param snapshot
      */
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mProductAdapter.swapCursor(data);
+    public void onProductsChanged(ProductSnapshot snapshot) {
+        mProductAdapter.submit(snapshot);
     }
 
     /**
-     * Handles the loader reset.
-     * @param loader
+     * Handles when a product in the list is clicked.
+     * @param id
      */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mProductAdapter.swapCursor(null);
+    public void onProductClick(long id) {
+        Intent editProductIntent = new Intent(InventoryActivity.this, EditorActivity.class);
+        editProductIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION|Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        editProductIntent.setData(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        startActivity(editProductIntent);
     }
 
     ///////////////////////
@@ -115,45 +395,856 @@ public class InventoryActivity extends AppCompatActivity implements LoaderManage
     ///////////////////////
 
     /**
-     * Delete all products in the database.
+     * Filter the list by the given search text once the given delay has passed without
+     * further changes.
+     * @param text
+     * @param delayMs
+     */
+    private void setSearchText(String text, long delayMs) {
+        String searchText = text == null ? null : text.trim();
+        if (TextUtils.equals(searchText, mSearchText)) {
+            return;
+        }
+        mSearchText = searchText;
+        mHandler.removeCallbacks(mSearchRunnable);
+        mHandler.postDelayed(mSearchRunnable, delayMs);
+    }
+
+    /**
+     * Sort and filter the list with the given options.
+     * @param filter
+     */
+    private void setFilter(ProductFilter filter) {
+        mFilter = filter;
+        mProductPager.setFilter(filter);
+        supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * Read the suppliers in the background, then show the filter options.
+     */
+    private void chooseFilter() {
+        if (mLoadSuppliersTask != null) {
+            return;
+        }
+        mLoadSuppliersTask = new LoadSuppliersTask(this);
+        mLoadSuppliersTask.execute();
+    }
+
+    /**
+     * Show the filter options, with the given suppliers to choose from.
+     * @param supplierIds
+     * @param supplierLabels
+     */
+    private void showFilterDialog(final long[] supplierIds, List<String> supplierLabels) {
+        View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final CheckBox lowStockCheckBox = (CheckBox) view.findViewById(R.id.filter_low_stock);
+        final Spinner supplierSpinner = (Spinner) view.findViewById(R.id.filter_supplier);
+        final EditText minPriceEditText = (EditText) view.findViewById(R.id.filter_min_price);
+        final EditText maxPriceEditText = (EditText) view.findViewById(R.id.filter_max_price);
+
+        // The first entry stands for every supplier
+        List<String> labels = new ArrayList<>();
+        labels.add(getString(R.string.filter_all_suppliers));
+        labels.addAll(supplierLabels);
+        ArrayAdapter<String> supplierAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, labels);
+        supplierAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        supplierSpinner.setAdapter(supplierAdapter);
+
+        lowStockCheckBox.setChecked(mFilter.lowStock);
+        for (int i = 0; i < supplierIds.length; i++) {
+            if (supplierIds[i] == mFilter.supplierId) {
+                supplierSpinner.setSelection(i + 1);
+            }
+        }
+        if (mFilter.minPrice != null) {
+            minPriceEditText.setText(String.valueOf(mFilter.minPrice));
+        }
+        if (mFilter.maxPrice != null) {
+            maxPriceEditText.setText(String.valueOf(mFilter.maxPrice));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.filter_title)
+                .setView(view)
+                .setPositiveButton(R.string.filter_apply, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        int position = supplierSpinner.getSelectedItemPosition();
+                        setFilter(mFilter.withFilters(lowStockCheckBox.isChecked(),
+                                position > 0 ? supplierIds[position - 1] : -1,
+                                parsePrice(minPriceEditText), parsePrice(maxPriceEditText)));
+                    }
+                })
+                .setNeutralButton(R.string.filter_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        setFilter(mFilter.withFilters(false, -1, null, null));
+                    }
+                })
+                .setNegativeButton(R.string.dialog_button_cancel, null)
+                .show();
+    }
+
+    /**
+     * Read a price bound from a field, null if it's empty or not a number.
+     * @param editText
+     * @return
+     */
+    private static Double parsePrice(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(text)) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the suppliers to filter by, then shows the filter options.
+     */
+    private static class LoadSuppliersTask extends AsyncTask<Void, Void, Cursor> {
+        private static final String[] PROJECTION = {
+                SupplierEntry._ID,
+                SupplierEntry.COLUMN_SUPPLIER_NAME,
+                SupplierEntry.COLUMN_SUPPLIER_EMAIL };
+
+        private final ContentResolver mResolver;
+
+        /** Activity the options are shown in, null once it's destroyed. Only used on the UI thread. */
+        private InventoryActivity mActivity;
+
+        LoadSuppliersTask(InventoryActivity activity) {
+            mResolver = activity.getApplicationContext().getContentResolver();
+            mActivity = activity;
+        }
+
+        /**
+         * Let go of the activity. The suppliers are read, but no options are shown.
+         */
+        void detach() {
+            mActivity = null;
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            Cursor cursor = mResolver.query(SupplierEntry.CONTENT_URI, PROJECTION,
+                    null, null, SupplierEntry.COLUMN_SUPPLIER_NAME + " COLLATE NOCASE");
+            if (cursor != null) {
+                // Fill the window off the UI thread
+                cursor.getCount();
+            }
+            return cursor;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor cursor) {
+            if (mActivity == null || mActivity.mLoadSuppliersTask != this) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                return;
+            }
+            long[] ids = new long[cursor == null ? 0 : cursor.getCount()];
+            List<String> labels = new ArrayList<>();
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        ids[cursor.getPosition()] = cursor.getLong(0);
+                        labels.add(mActivity.getString(R.string.filter_supplier, cursor.getString(1), cursor.getString(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            mActivity.mLoadSuppliersTask = null;
+            mActivity.showFilterDialog(ids, labels);
+        }
+    }
+
+    /**
+     * Delete all products in the database, in chunks on the {@link ProductWriteQueue}, showing the
+     * progress with the option to cancel. The freed space is given back to the file system after.
      */
     private void deleteAllProducts() {
-        int deletedProducts = getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
-        if (deletedProducts > 0) {
+        if (mDeleteAllJob != null) {
+            return;
+        }
+        mDeleteAllJob = new DeleteAllJob(this);
+        showDeleteAllDialog(0);
+        mDeleteAllJob.next();
+    }
+
+    /**
+     * Show the delete all progress dialog, with the option to cancel.
+     * @param deleted number of products deleted so far
+     */
+    private void showDeleteAllDialog(int deleted) {
+        mDeleteAllDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.delete_all_title)
+                .setMessage(getString(R.string.delete_all_progress, deleted))
+                .setCancelable(false)
+                .setNegativeButton(R.string.dialog_button_cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (mDeleteAllJob != null) {
+                            mDeleteAllJob.cancel();
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Show the delete all progress.
+     * @param deleted
+     */
+    private void onDeleteAllProgress(int deleted) {
+        if (mDeleteAllDialog != null) {
+            mDeleteAllDialog.setMessage(getString(R.string.delete_all_progress, deleted));
+        }
+    }
+
+    /**
+     * Handle the end of a delete all.
+     * @param deleted   number of products deleted
+     * @param cancelled whether it was cancelled before every product was deleted
+     * @param failed    whether a chunk failed
+     */
+    private void onDeleteAllFinished(int deleted, boolean cancelled, boolean failed) {
+        mDeleteAllJob = null;
+        if (mDeleteAllDialog != null) {
+            mDeleteAllDialog.dismiss();
+            mDeleteAllDialog = null;
+        }
+
+        if (failed || (deleted == 0 && !cancelled)) {
+            // There was an error with deletion, or nothing to delete.
+            Toast.makeText(this, getString(R.string.editor_delete_product_failed), Toast.LENGTH_SHORT).show();
+        } else if (cancelled) {
+            Toast.makeText(this, getString(R.string.delete_all_cancelled, deleted), Toast.LENGTH_SHORT).show();
+        } else {
             // The delete was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.action_delete_all_products_successful) + " (" + deletedProducts + ")", Toast.LENGTH_SHORT).show();
+            Toast.makeText(this, getString(R.string.action_delete_all_products_successful) + " (" + deleted + ")", Toast.LENGTH_SHORT).show();
+        }
+
+        if (deleted > 0) {
+            // Only a complete delete frees enough to be worth giving back; the rest is reused
+            final boolean reclaim = !cancelled && !failed;
+            final ContentResolver resolver = getContentResolver();
+            final ImageStore imageStore = ImageStore.get(this);
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (reclaim) {
+                        resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_RECLAIM_SPACE, null, null);
+                    }
+                    // The images of the deleted products take space too
+                    imageStore.sweep();
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the products a chunk at a time. Each chunk is one short transaction queued on the
+     * {@link ProductWriteQueue}, and the next one is queued only when it's done, so other writes
+     * get their turn in between and the list reloads between chunks. The job outlives a
+     * configuration change: it's handed to the new activity, which shows its progress again.
+     */
+    private static class DeleteAllJob implements ProductWriteQueue.Callback {
+        /** Products deleted per transaction */
+        private static final int CHUNK_SIZE = 500;
+
+        private static final Uri CHUNK_URI = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductContract.PARAM_LIMIT, String.valueOf(CHUNK_SIZE))
+                .build();
+
+        private final ProductWriteQueue mWriteQueue;
+
+        /** Activity showing the progress, null while there's none. Only used on the UI thread. */
+        private InventoryActivity mActivity;
+
+        private int mDeleted = 0;
+        private boolean mCancelled = false;
+
+        /** Whether the job has ended, and whether a chunk failed, until an activity reports it */
+        private boolean mFinished = false;
+        private boolean mFailed = false;
+
+        DeleteAllJob(InventoryActivity activity) {
+            mWriteQueue = ProductWriteQueue.get(activity);
+            mActivity = activity;
+        }
+
+        /**
+         * Report to a new activity, which shows the progress, or the outcome if the job has ended.
+         */
+        void attach(InventoryActivity activity) {
+            mActivity = activity;
+            if (mFinished) {
+                report();
+            }
+        }
+
+        /**
+         * Let go of the activity. The job goes on, unless it's been cancelled.
+         */
+        void detach() {
+            mActivity = null;
+        }
+
+        /**
+         * Stop after the chunk being deleted, if any.
+         */
+        void cancel() {
+            mCancelled = true;
+        }
+
+        void next() {
+            mWriteQueue.enqueue(ContentProviderOperation.newDelete(CHUNK_URI).build(), this);
+        }
+
+        @Override
+        public void onWriteDone(ContentProviderResult result) {
+            mDeleted += result.count;
+            if (result.count == CHUNK_SIZE && !mCancelled) {
+                if (mActivity != null) {
+                    mActivity.onDeleteAllProgress(mDeleted);
+                }
+                next();
+            } else {
+                mFinished = true;
+                report();
+            }
+        }
+
+        @Override
+        public void onWriteFailed(Exception e) {
+            mFinished = true;
+            mFailed = true;
+            report();
+        }
+
+        private void report() {
+            if (mActivity != null && mActivity.mDeleteAllJob == this) {
+                mActivity.onDeleteAllFinished(mDeleted, mCancelled, mFailed);
+            }
+        }
+    }
+
+    /**
+     * Show the scan entry dialog. Each code typed into it, usually by a keyboard wedge scanner
+     * that ends every code with Enter, adds one unit to the product with that SKU, or removes one.
+     */
+    private void startScanEntry() {
+        if (mScanSession != null) {
+            return;
+        }
+        View view = getLayoutInflater().inflate(R.layout.dialog_scan, null);
+        final CheckBox removeCheckBox = (CheckBox) view.findViewById(R.id.scan_remove);
+        final EditText codeEditText = (EditText) view.findViewById(R.id.scan_code);
+        mScanStatusView = (TextView) view.findViewById(R.id.scan_status);
+
+        mScanSession = new ScanSession(this);
+        codeEditText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+            @Override
+            public boolean onEditorAction(TextView textView, int actionId, KeyEvent event) {
+                if (event != null && event.getAction() != KeyEvent.ACTION_DOWN) {
+                    // Release of the Enter key, whose press already took the code
+                    return true;
+                }
+                String code = textView.getText().toString().trim();
+                textView.setText("");
+                if (mScanSession != null && !TextUtils.isEmpty(code)) {
+                    mScanSession.scan(code, removeCheckBox.isChecked() ? -1 : 1);
+                }
+                // Keep the focus on the field, ready for the next code
+                return true;
+            }
+        });
+
+        mScanDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.scan_title)
+                .setView(view)
+                .setPositiveButton(R.string.scan_done, null)
+                .setOnDismissListener(new DialogInterface.OnDismissListener() {
+                    @Override
+                    public void onDismiss(DialogInterface dialog) {
+                        finishScanEntry();
+                    }
+                })
+                .show();
+        codeEditText.requestFocus();
+    }
+
+    /**
+     * Show the outcome of a scan.
+     * @param productId id of the product whose quantity changed, -1 if the code is unknown
+     * @param status
+     */
+    private void onScanned(long productId, String status) {
+        if (productId != -1) {
+            // The change is pending on the coalescer: redraw the row to show it
+            mProductAdapter.onPendingChanged(productId);
+        }
+        if (mScanStatusView != null) {
+            mScanStatusView.setText(status);
+        }
+    }
+
+    /**
+     * End the scan entry and write the changes it recorded.
+     */
+    private void finishScanEntry() {
+        if (mScanSession == null) {
+            return;
+        }
+        mScanSession.finish();
+        mScanSession = null;
+        mScanDialog = null;
+        mScanStatusView = null;
+    }
+
+    /**
+     * Turns a stream of scanned codes into quantity changes. Each SKU is looked up through the SKU
+     * URI once per session, in the background and in scan order, and its changes are recorded on
+     * the {@link SaleCoalescer}, which writes a burst of scans as one adjustment per product,
+     * batched on the {@link ProductWriteQueue}. Like SALE taps, a change that would take the
+     * stock below zero or above the maximum quantity is refused.
+     */
+    private static class ScanSession {
+        private static final String[] PROJECTION = { ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME };
+
+        private final InventoryActivity mActivity;
+
+        /** Looks the codes up one at a time */
+        private final ExecutorService mLookups = Executors.newSingleThreadExecutor();
+
+        /** Delivers the lookups on the UI thread */
+        private final Handler mHandler = new Handler();
+
+        /** Ids of the products found so far, by SKU */
+        private final Map<String, Long> mIds = new HashMap<>();
+
+        /** Names of the products found so far, by SKU */
+        private final Map<String, String> mNames = new HashMap<>();
+
+        ScanSession(InventoryActivity activity) {
+            mActivity = activity;
+        }
+
+        /**
+         * Change the quantity of the product with the given SKU.
+         */
+        void scan(final String sku, final int delta) {
+            if (mIds.containsKey(sku)) {
+                apply(sku, delta);
+                return;
+            }
+            final ContentResolver resolver = mActivity.getContentResolver();
+            mLookups.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long id = -1;
+                    String name = null;
+                    Cursor cursor = resolver.query(ProductEntry.buildSkuUri(sku), PROJECTION, null, null, null);
+                    if (cursor != null) {
+                        try {
+                            if (cursor.moveToFirst()) {
+                                id = cursor.getLong(0);
+                                name = cursor.getString(1);
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                    final long foundId = id;
+                    final String foundName = name;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (foundId != -1) {
+                                mIds.put(sku, foundId);
+                                mNames.put(sku, foundName);
+                            }
+                            apply(sku, delta);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void apply(String sku, int delta) {
+            Long id = mIds.get(sku);
+            if (id == null) {
+                mActivity.onScanned(-1, mActivity.getString(R.string.scan_unknown, sku));
+                return;
+            }
+            SaleCoalescer.get(mActivity).record(id, delta);
+            mActivity.onScanned(id, mActivity.getString(R.string.scan_applied, mNames.get(sku), delta));
+        }
+
+        /**
+         * Stop taking codes. The ones still being looked up are applied when found; what has been
+         * recorded so far is written right away.
+         */
+        void finish() {
+            mLookups.shutdown();
+            SaleCoalescer.get(mActivity).flush();
+        }
+    }
+
+    /**
+     * Open the file picker to choose a CSV or JSON catalog.
+     */
+    private void pickCatalog() {
+        if (mImportTask != null) {
+            return;
+        }
+        Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+        pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+        pickIntent.setType("*/*");
+        startActivityForResult(pickIntent, PICK_CATALOG);
+    }
+
+    /**
+     * Import the given catalog in the background, showing the progress in a dialog.
+     * @param catalogUri
+     */
+    private void importCatalog(Uri catalogUri) {
+        String mimeType = getContentResolver().getType(catalogUri);
+        String path = catalogUri.getLastPathSegment();
+        boolean json = (mimeType != null && mimeType.contains("json"))
+                || (path != null && path.toLowerCase().endsWith(".json"));
+
+        mImportTask = new ImportCatalogTask(this, catalogUri,
+                json ? CatalogImporter.FORMAT_JSON : CatalogImporter.FORMAT_CSV);
+        mImportDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.import_catalog_title)
+                .setMessage(getString(R.string.import_catalog_progress, 0, 0))
+                .setCancelable(false)
+                .setNegativeButton(R.string.import_catalog_cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (mImportTask != null) {
+                            mImportTask.mImporter.cancel();
+                        }
+                    }
+                })
+                .show();
+        // Off the serial executor, so the page, diff and save tasks don't wait for the import
+        mImportTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Show the import progress.
+     * @param rowsRead
+     * @param rowsImported
+     */
+    private void onImportProgress(int rowsRead, int rowsImported) {
+        if (mImportDialog != null) {
+            mImportDialog.setMessage(getString(R.string.import_catalog_progress, rowsRead, rowsImported));
+        }
+    }
+
+    /**
+     * Handle the end of an import.
+     * @param result the outcome, null if the catalog couldn't be read
+     */
+    private void onImportFinished(CatalogImporter.Result result) {
+        mImportTask = null;
+        if (mImportDialog != null) {
+            mImportDialog.dismiss();
+            mImportDialog = null;
+        }
+
+        String message;
+        if (result == null) {
+            message = getString(R.string.import_catalog_failed);
+        } else if (result.cancelled) {
+            message = getString(R.string.import_catalog_cancelled, result.rowsImported);
         } else {
-            // There was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_delete_product_failed), Toast.LENGTH_SHORT).show();
+            message = getString(R.string.import_catalog_finished, result.rowsImported, result.rowsRejected);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Streams a catalog file into the provider, reporting progress after each batch.
+     */
+    private static class ImportCatalogTask extends AsyncTask<Void, Integer, CatalogImporter.Result> {
+        private final Context mContext;
+        private final Uri mCatalogUri;
+        private final int mFormat;
+        private final CatalogImporter mImporter;
+
+        /** Activity told about the progress, null once it's destroyed. Only used on the UI thread. */
+        private InventoryActivity mActivity;
+
+        ImportCatalogTask(InventoryActivity activity, Uri catalogUri, int format) {
+            mContext = activity.getApplicationContext();
+            mActivity = activity;
+            mCatalogUri = catalogUri;
+            mFormat = format;
+            mImporter = new CatalogImporter(mContext.getContentResolver(), CatalogImporter.DEFAULT_BATCH_SIZE);
+        }
+
+        /**
+         * Let go of the activity. The import stops at its next batch, and nothing is reported.
+         */
+        void detach() {
+            mActivity = null;
+        }
+
+        @Override
+        protected CatalogImporter.Result doInBackground(Void... params) {
+            File errorFile = new File(mContext.getCacheDir(), IMPORT_ERRORS_FILE);
+            InputStream input = null;
+            Writer errorLog = null;
+            try {
+                input = mContext.getContentResolver().openInputStream(mCatalogUri);
+                if (input == null) {
+                    return null;
+                }
+                errorLog = new OutputStreamWriter(new FileOutputStream(errorFile), "UTF-8");
+                return mImporter.importCatalog(input, mFormat, errorLog, new CatalogImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(int rowsRead, int rowsImported) {
+                        publishProgress(rowsRead, rowsImported);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Error importing " + mCatalogUri, e);
+                return null;
+            } finally {
+                closeQuietly(input);
+                closeQuietly(errorLog);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            if (mActivity != null) {
+                mActivity.onImportProgress(values[0], values[1]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(CatalogImporter.Result result) {
+            if (mActivity != null && mActivity.mImportTask == this) {
+                mActivity.onImportFinished(result);
+            }
+        }
 
+        private static void closeQuietly(Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 
     /**
-     * Sets the cursor adapter for the ListView that holds the product list.
+     * Create the supplier orders in the background, then show those waiting to be sent.
      */
-    private void setAdapter() {
-        // get the pieces that compose the adapter
-        mProductAdapter      = new ProductCursorAdapter(this, null);
-        View emptyView       = findViewById(R.id.empty_view);
-        ListView petListView = (ListView)findViewById(R.id.list_view_pet);
-
-        // set the cursor adapter
-        petListView.setAdapter(mProductAdapter);
-        // set the empty view
-        petListView.setEmptyView(emptyView);
-        // add the click event handler for every item in the ListView
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+    private void generateOrders() {
+        if (mGenerateOrdersTask != null) {
+            return;
+        }
+        mGenerateOrdersTask = new GenerateOrdersTask(this);
+        mGenerateOrdersTask.execute();
+    }
+
+    /**
+     * Show the orders waiting to be sent. Picking one opens it in the email app and marks it as sent.
+     * @param orders
+     */
+    private void onOrdersGenerated(final List<ContentValues> orders) {
+        mGenerateOrdersTask = null;
+        if (orders.isEmpty()) {
+            Toast.makeText(this, getString(R.string.orders_none), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String[] labels = new String[orders.size()];
+        for (int i = 0; i < labels.length; i++) {
+            ContentValues order = orders.get(i);
+            labels[i] = getString(R.string.orders_item, order.getAsString(OrderEntry.COLUMN_ORDER_SUPPLIER_NAME),
+                    order.getAsInteger(OrderEntry.COLUMN_ORDER_ITEM_COUNT));
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.orders_title)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        sendOrder(orders.get(which));
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Keep the stock movements ledger bounded. Compacting an already compact ledger costs next to
+     * nothing, so it simply runs whenever the inventory opens.
+     */
+    private void compactLedger() {
+        final ContentResolver resolver = getContentResolver();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Intent editProductIntent = new Intent(InventoryActivity.this, EditorActivity.class);
-                editProductIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION|Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-                editProductIntent.setData(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
-                startActivity(editProductIntent);
+            public void run() {
+                resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_COMPACT_LEDGER, null, null);
             }
         });
     }
 
+    /**
+     * Open an order in the email app, addressed to its supplier, and mark it as sent.
+     * @param order
+     */
+    private void sendOrder(ContentValues order) {
+        Intent emailIntent = new Intent(Intent.ACTION_SENDTO);
+        emailIntent.setData(Uri.parse("mailto:" + Uri.encode(order.getAsString(OrderEntry.COLUMN_ORDER_SUPPLIER_EMAIL))));
+        emailIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.orders_subject, getString(R.string.app_name)));
+        emailIntent.putExtra(Intent.EXTRA_TEXT, order.getAsString(OrderEntry.COLUMN_ORDER_DOCUMENT));
+        if (emailIntent.resolveActivity(getPackageManager()) == null) {
+            Toast.makeText(this, "Unable to open.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        startActivity(emailIntent);
+
+        Uri orderUri = ContentUris.withAppendedId(OrderEntry.CONTENT_URI, order.getAsLong(OrderEntry._ID));
+        ProductWriteQueue.get(this).enqueue(ContentProviderOperation.newUpdate(orderUri)
+                .withValue(OrderEntry.COLUMN_ORDER_SENT, 1).build(), null);
+    }
+
+    /**
+     * Creates the supplier orders and reads back those waiting to be sent.
+     */
+    private static class GenerateOrdersTask extends AsyncTask<Void, Void, List<ContentValues>> {
+        private static final String[] PROJECTION = {
+                OrderEntry._ID,
+                OrderEntry.COLUMN_ORDER_SUPPLIER_NAME,
+                OrderEntry.COLUMN_ORDER_SUPPLIER_EMAIL,
+                OrderEntry.COLUMN_ORDER_ITEM_COUNT,
+                OrderEntry.COLUMN_ORDER_DOCUMENT };
+
+        private final ContentResolver mResolver;
+
+        /** Activity the orders are shown in, null once it's destroyed. Only used on the UI thread. */
+        private InventoryActivity mActivity;
+
+        GenerateOrdersTask(InventoryActivity activity) {
+            mResolver = activity.getApplicationContext().getContentResolver();
+            mActivity = activity;
+        }
+
+        /**
+         * Let go of the activity. The orders are still created, but not shown.
+         */
+        void detach() {
+            mActivity = null;
+        }
+
+        @Override
+        protected List<ContentValues> doInBackground(Void... params) {
+            mResolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_GENERATE_ORDERS, null, null);
+
+            List<ContentValues> orders = new ArrayList<>();
+            Cursor cursor = mResolver.query(OrderEntry.CONTENT_URI, PROJECTION,
+                    OrderEntry.COLUMN_ORDER_SENT + " = 0", null, null);
+            if (cursor == null) {
+                return orders;
+            }
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues order = new ContentValues();
+                    order.put(OrderEntry._ID, cursor.getLong(0));
+                    order.put(OrderEntry.COLUMN_ORDER_SUPPLIER_NAME, cursor.getString(1));
+                    order.put(OrderEntry.COLUMN_ORDER_SUPPLIER_EMAIL, cursor.getString(2));
+                    order.put(OrderEntry.COLUMN_ORDER_ITEM_COUNT, cursor.getInt(3));
+                    order.put(OrderEntry.COLUMN_ORDER_DOCUMENT, cursor.getString(4));
+                    orders.add(order);
+                }
+            } finally {
+                cursor.close();
+            }
+            return orders;
+        }
+
+        @Override
+        protected void onPostExecute(List<ContentValues> orders) {
+            if (mActivity != null && mActivity.mGenerateOrdersTask == this) {
+                mActivity.onOrdersGenerated(orders);
+            }
+        }
+    }
+
+    /**
+     * Ask for the export format and then share the catalog in it.
+     */
+    private void chooseExportFormat() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export_catalog_title)
+                .setItems(R.array.export_catalog_formats, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exportCatalog(which == 0 ? ProductContract.EXPORT_CSV : ProductContract.EXPORT_JSON);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Share the catalog with another app. The receiving app reads the export URI, which the
+     * provider streams from the database as it's read.
+     * @param format
+     */
+    private void exportCatalog(String format) {
+        Uri exportUri = ProductEntry.buildExportUri(format);
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType(getContentResolver().getType(exportUri));
+        shareIntent.putExtra(Intent.EXTRA_STREAM, exportUri);
+        shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(shareIntent, getString(R.string.action_export_catalog)));
+    }
+
+    /**
+     * Sets the adapter for the RecyclerView that holds the product list.
+     */
+    private void setAdapter() {
+        // get the pieces that compose the adapter
+        mProductPager        = new ProductPager(getContentResolver(), this);
+        mProductAdapter      = new ProductAdapter(this, this);
+        SaleCoalescer.get(this).setListener(mProductAdapter);
+        mLayoutManager       = new LinearLayoutManager(this);
+        mEmptyView           = findViewById(R.id.empty_view);
+        mProductListView     = (RecyclerView) findViewById(R.id.list_view_pet);
+
+        // set the adapter
+        mProductListView.setLayoutManager(mLayoutManager);
+        mProductListView.setAdapter(mProductAdapter);
+        // toggle the empty view
+        mProductAdapter.registerAdapterDataObserver(mEmptyObserver);
+        updateEmptyView();
+        // load more products while scrolling
+        mProductListView.addOnScrollListener(mScrollListener);
+    }
+
+    /**
+     * Show the empty view instead of the list when there are no products.
+     */
+    private void updateEmptyView() {
+        boolean empty = mProductAdapter.getItemCount() == 0;
+        mEmptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+        mProductListView.setVisibility(empty ? View.GONE : View.VISIBLE);
+    }
+
     /**
      * Set the FAB click event handler.
      */
@@ -0,0 +1,379 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleCoalescer;
+import com.example.android.inventoryapp.image.ImageLoader;
+
+/**
+ * {@link ProductAdapter} is an adapter for a recycler view that uses a {@link ProductSnapshot} of
+ * product data as its data source. New snapshots are diffed against the current one on a
+ * background thread, so only the rows that actually changed are rebound.
+ *
+ * Binding a row doesn't allocate: the click listeners are shared by every row, the colors are
+ * resolved once and numbers are formatted into per-row char buffers.
+ */
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ViewHolder>
+        implements SaleCoalescer.Listener {
+
+    /**
+     * Callback for clicks on a product row.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    /** Currency symbol appended to prices */
+    private static final char CURRENCY = '€';
+
+    private final Context mContext;
+
+    /** Callback for clicks on a product row */
+    private final OnProductClickListener mClickListener;
+
+    /** Loads the product thumbnails */
+    private final ImageLoader mImageLoader;
+
+    /** Collects the SALE taps */
+    private final SaleCoalescer mSaleCoalescer;
+
+    /** Quantity colors, resolved once */
+    private final int mColorRed;
+    private final int mColorOrange;
+    private final int mColorGreen;
+
+    /** Click listener shared by every row: open the product. The row's holder is the view tag. */
+    private final View.OnClickListener mRowListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            if (holder.getAdapterPosition() != RecyclerView.NO_POSITION) {
+                mClickListener.onProductClick(holder.getItemId());
+            }
+        }
+    };
+
+    /**
+     * Click listener shared by every SALE button. Taps are collected by the {@link SaleCoalescer},
+     * which writes them as one adjustment per product, and shown right away by adding them to the
+     * stored quantity. The provider adjusts the stored quantity atomically, so taps on a stale row
+     * can't overwrite other sales. The row's holder is the view tag.
+     */
+    private final View.OnClickListener mSaleListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || getDisplayedQuantity(position) <= 0) {
+                return;
+            }
+            mSaleCoalescer.record(holder.getItemId(), -1);
+            notifyItemChanged(position);
+        }
+    };
+
+    /** Products currently shown */
+    private ProductSnapshot mSnapshot = ProductSnapshot.EMPTY;
+
+    /** Latest snapshot submitted while a diff was running, null if none */
+    private ProductSnapshot mPendingSnapshot = null;
+
+    /** Whether a diff is running */
+    private boolean mDiffing = false;
+
+    /**
+     * Constructs a new {@link ProductAdapter}.
+     *
+     * @param context       The context
+     * @param clickListener Callback for clicks on a product row.
+     */
+    public ProductAdapter(Context context, OnProductClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mImageLoader = ImageLoader.thumbnails(context);
+        mSaleCoalescer = SaleCoalescer.get(context);
+        mColorRed = ContextCompat.getColor(context, R.color.colorRed);
+        mColorOrange = ContextCompat.getColor(context, R.color.colorOrange);
+        mColorGreen = ContextCompat.getColor(context, R.color.colorGreen);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given products. The changes are computed in the background and dispatched as
+     * item-level notifications.
+     */
+    public void submit(ProductSnapshot snapshot) {
+        if (mDiffing) {
+            mPendingSnapshot = snapshot;
+            return;
+        }
+        mDiffing = true;
+        new DiffTask(this, mSnapshot, snapshot).execute();
+    }
+
+    /**
+     * Apply a finished diff. Runs on the UI thread.
+     */
+    private void onDiffFinished(ProductSnapshot snapshot, DiffUtil.DiffResult result) {
+        mSnapshot = snapshot;
+        result.dispatchUpdatesTo(this);
+        mDiffing = false;
+
+        if (mPendingSnapshot != null) {
+            ProductSnapshot pending = mPendingSnapshot;
+            mPendingSnapshot = null;
+            submit(pending);
+        }
+    }
+
+    /**
+     * Show again the quantity of a product whose pending changes were dropped, or were recorded
+     * away from the list, by a scan.
+     */
+    @Override
+    public void onPendingChanged(long productId) {
+        for (int position = 0; position < mSnapshot.getCount(); position++) {
+            if (mSnapshot.getId(position) == productId) {
+                notifyItemChanged(position);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Quantity shown for the product at the given position: the stored one, minus the sales not
+     * written yet.
+     */
+    private int getDisplayedQuantity(int position) {
+        return mSnapshot.getQuantity(position) + mSaleCoalescer.getPendingDelta(mSnapshot.getId(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSnapshot.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.getId(position);
+    }
+
+    /**
+     * Makes a new blank list item view holder. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.item_product, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * This method binds the product data at the given position to the given view holder.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        // product name.
+        holder.tvName.setText(mSnapshot.getName(position));
+
+        // product thumbnail, loaded in the background unless it's cached.
+        mImageLoader.load(mSnapshot.getImage(position), holder.ivImage);
+
+        // product quantity.
+        int quantity = getDisplayedQuantity(position);
+        int length = writeInteger(quantity, holder.quantityBuffer, 0);
+        holder.tvQuantity.setText(holder.quantityBuffer, 0, length);
+        setQuantityColor(quantity, holder.tvQuantity);
+
+        // product price
+        length = writePrice(mSnapshot.getPrice(position), holder.priceBuffer);
+        holder.tvPrice.setText(holder.priceBuffer, 0, length);
+
+        setButtonState(holder.bSale, quantity);
+    }
+
+    /**
+     * Set enabled/disabled state of the SALE button.
+     * @param button
+     * @param quantity
+     */
+    public void setButtonState(Button button, int quantity) {
+        if (quantity <= 0){
+            button.setEnabled(false);
+        } else {
+            button.setEnabled(true);
+        }
+    }
+
+    /**
+     * Set the text color for the quantity TextView.
+     * @param quantity
+     * @param textView
+     */
+    public void setQuantityColor(int quantity, TextView textView) {
+        if (quantity <= ProductEntry.QUANTITY_CRITICAL){
+            textView.setTextColor(mColorRed);
+            return;
+        }
+
+        if (quantity <= ProductEntry.QUANTITY_LOW){
+            textView.setTextColor(mColorOrange);
+            return;
+        }
+
+        textView.setTextColor(mColorGreen);
+    }
+
+    /**
+     * Write a price with two decimals and the currency symbol into the buffer.
+     * @param price
+     * @param buffer
+     * @return the number of chars written
+     */
+    static int writePrice(float price, char[] buffer) {
+        long cents = Math.round(price * 100.0);
+        int length = 0;
+        if (cents < 0) {
+            buffer[length++] = '-';
+            cents = -cents;
+        }
+        length = writeInteger(cents / 100, buffer, length);
+        long fraction = cents % 100;
+        buffer[length++] = '.';
+        buffer[length++] = (char) ('0' + fraction / 10);
+        buffer[length++] = (char) ('0' + fraction % 10);
+        buffer[length++] = CURRENCY;
+        return length;
+    }
+
+    /**
+     * Write the decimal digits of a number into the buffer, starting at offset.
+     * @param value
+     * @param buffer
+     * @param offset
+     * @return the offset after the last char written
+     */
+    static int writeInteger(long value, char[] buffer, int offset) {
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        // Count the digits, then fill them in from the right
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Holds the views of a product row, so they're only looked up once.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView ivImage;
+        final TextView tvName;
+        final TextView tvQuantity;
+        final TextView tvPrice;
+        final Button bSale;
+
+        /** Reusable buffers for the formatted numbers */
+        final char[] quantityBuffer = new char[12];
+        final char[] priceBuffer = new char[24];
+
+        ViewHolder(View view) {
+            super(view);
+            ivImage    = (ImageView) view.findViewById(R.id.image);
+            tvName     = (TextView) view.findViewById(R.id.name);
+            tvQuantity = (TextView) view.findViewById(R.id.quantity);
+            tvPrice    = (TextView) view.findViewById(R.id.price);
+            bSale      = (Button) view.findViewById(R.id.button_sale);
+
+            // Share the listeners between rows; they find the row through the tag.
+            view.setTag(this);
+            view.setOnClickListener(mRowListener);
+            bSale.setTag(this);
+            bSale.setOnClickListener(mSaleListener);
+        }
+    }
+
+    /**
+     * Compares two snapshots row by row: same id means same item, and the item is unchanged if
+     * every bound value is equal.
+     */
+    private static class SnapshotDiff extends DiffUtil.Callback {
+        private final ProductSnapshot mOld;
+        private final ProductSnapshot mNew;
+
+        SnapshotDiff(ProductSnapshot oldSnapshot, ProductSnapshot newSnapshot) {
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.getCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.getCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.getId(oldItemPosition) == mNew.getId(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.getQuantity(oldItemPosition) == mNew.getQuantity(newItemPosition)
+                    && mOld.getPrice(oldItemPosition) == mNew.getPrice(newItemPosition)
+                    && TextUtils.equals(mOld.getName(oldItemPosition), mNew.getName(newItemPosition))
+                    && TextUtils.equals(mOld.getImage(oldItemPosition), mNew.getImage(newItemPosition));
+        }
+    }
+
+    /**
+     * Diffs two snapshots on a background thread.
+     */
+    private static class DiffTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+        private final ProductAdapter mAdapter;
+        private final ProductSnapshot mOld;
+        private final ProductSnapshot mNew;
+
+        DiffTask(ProductAdapter adapter, ProductSnapshot oldSnapshot, ProductSnapshot newSnapshot) {
+            mAdapter = adapter;
+            mOld = oldSnapshot;
+            mNew = newSnapshot;
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... params) {
+            // Rows do move: a rename, a sale or a price change moves a row under the sorts by
+            // name, quantity or price, so moves are detected and animated as such
+            return DiffUtil.calculateDiff(new SnapshotDiff(mOld, mNew), true);
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult result) {
+            mAdapter.onDiffFinished(mNew, result);
+        }
+    }
+}
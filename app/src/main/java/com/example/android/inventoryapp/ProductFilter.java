@@ -0,0 +1,189 @@
+package com.example.android.inventoryapp;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventoryapp.data.ProductContract;
+
+/**
+ * {@link ProductFilter} is the sort and filters the product list is shown with. It turns them into
+ * query parameters of the products URI, and knows the page key of each sort so the
+ * {@link ProductPager} can page through the list and place changed rows in it.
+ *
+ * Instances are immutable: the with...() methods return a changed copy.
+ */
+public final class ProductFilter {
+
+    /** Every product, sorted by name */
+    public static final ProductFilter DEFAULT = new ProductFilter(ProductContract.SORT_NAME, false, -1, null, null);
+
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_LOW_STOCK = "low_stock";
+    private static final String STATE_SUPPLIER_ID = "supplier_id";
+    private static final String STATE_MIN_PRICE = "min_price";
+    private static final String STATE_MAX_PRICE = "max_price";
+
+    /** One of the ProductContract.SORT_ values */
+    public final String sort;
+
+    /** Whether only the products at or below their reorder point are shown */
+    public final boolean lowStock;
+
+    /** Id of the supplier whose products are shown, -1 for every supplier */
+    public final long supplierId;
+
+    /** Lowest price shown, null for no lower bound */
+    public final Double minPrice;
+
+    /** Highest price shown, null for no upper bound */
+    public final Double maxPrice;
+
+    private ProductFilter(String sort, boolean lowStock, long supplierId, Double minPrice, Double maxPrice) {
+        this.sort = sort;
+        this.lowStock = lowStock;
+        this.supplierId = supplierId;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    public ProductFilter withSort(String sort) {
+        return new ProductFilter(sort, lowStock, supplierId, minPrice, maxPrice);
+    }
+
+    public ProductFilter withFilters(boolean lowStock, long supplierId, Double minPrice, Double maxPrice) {
+        return new ProductFilter(sort, lowStock, supplierId, minPrice, maxPrice);
+    }
+
+    /**
+     * Whether any filter is set.
+     */
+    public boolean isFiltered() {
+        return lowStock || supplierId != -1 || minPrice != null || maxPrice != null;
+    }
+
+    /**
+     * Save the filter into an activity state bundle.
+     */
+    public void saveTo(Bundle state) {
+        state.putString(STATE_SORT, sort);
+        state.putBoolean(STATE_LOW_STOCK, lowStock);
+        state.putLong(STATE_SUPPLIER_ID, supplierId);
+        if (minPrice != null) {
+            state.putDouble(STATE_MIN_PRICE, minPrice);
+        }
+        if (maxPrice != null) {
+            state.putDouble(STATE_MAX_PRICE, maxPrice);
+        }
+    }
+
+    /**
+     * Read a filter saved with {@link #saveTo(Bundle)}, or the default one if there's none.
+     */
+    public static ProductFilter restoreFrom(Bundle state) {
+        if (state == null || !state.containsKey(STATE_SORT)) {
+            return DEFAULT;
+        }
+        return new ProductFilter(state.getString(STATE_SORT), state.getBoolean(STATE_LOW_STOCK),
+                state.getLong(STATE_SUPPLIER_ID),
+                state.containsKey(STATE_MIN_PRICE) ? state.getDouble(STATE_MIN_PRICE) : null,
+                state.containsKey(STATE_MAX_PRICE) ? state.getDouble(STATE_MAX_PRICE) : null);
+    }
+
+    /**
+     * Add the sort and the filters to a products URI.
+     */
+    Uri.Builder appendTo(Uri.Builder builder) {
+        builder.appendQueryParameter(ProductContract.PARAM_SORT, sort);
+        if (lowStock) {
+            builder.appendQueryParameter(ProductContract.PARAM_LOW_STOCK, "true");
+        }
+        if (supplierId != -1) {
+            builder.appendQueryParameter(ProductContract.PARAM_SUPPLIER_ID, String.valueOf(supplierId));
+        }
+        if (minPrice != null) {
+            builder.appendQueryParameter(ProductContract.PARAM_MIN_PRICE, String.valueOf(minPrice));
+        }
+        if (maxPrice != null) {
+            builder.appendQueryParameter(ProductContract.PARAM_MAX_PRICE, String.valueOf(maxPrice));
+        }
+        return builder;
+    }
+
+    /**
+     * Add the page key of a row to a products URI.
+     *
+     * @param after   whether the page starts after the row, or ends before it
+     * @param idShift added to the id of the row, -1 to start the page at the row itself
+     */
+    void appendKey(Uri.Builder builder, ProductPage page, int row, boolean after, long idShift) {
+        String nameParam = after ? ProductContract.PARAM_AFTER_NAME : ProductContract.PARAM_BEFORE_NAME;
+        String valueParam = after ? ProductContract.PARAM_AFTER_VALUE : ProductContract.PARAM_BEFORE_VALUE;
+        switch (sort) {
+            case ProductContract.SORT_QUANTITY:
+                builder.appendQueryParameter(valueParam, String.valueOf(page.quantities[row]));
+                break;
+            case ProductContract.SORT_PRICE:
+                builder.appendQueryParameter(valueParam, String.valueOf(page.prices[row]));
+                break;
+            case ProductContract.SORT_SUPPLIER:
+                builder.appendQueryParameter(valueParam, String.valueOf(page.supplierIds[row]));
+                builder.appendQueryParameter(nameParam, page.names[row]);
+                break;
+            default:
+                builder.appendQueryParameter(nameParam, page.names[row]);
+                break;
+        }
+        builder.appendQueryParameter(after ? ProductContract.PARAM_AFTER_ID : ProductContract.PARAM_BEFORE_ID,
+                String.valueOf(page.ids[row] + idShift));
+    }
+
+    /**
+     * Compare the sort keys of two rows, without the ids that break ties.
+     */
+    int compareKeys(ProductPage page1, int row1, ProductPage page2, int row2) {
+        switch (sort) {
+            case ProductContract.SORT_QUANTITY:
+                return compare(page1.quantities[row1], page2.quantities[row2]);
+            case ProductContract.SORT_PRICE:
+                return Double.compare(page1.prices[row1], page2.prices[row2]);
+            case ProductContract.SORT_SUPPLIER:
+                int bySupplier = compare(page1.supplierIds[row1], page2.supplierIds[row2]);
+                return bySupplier != 0 ? bySupplier : compareNames(page1.names[row1], page2.names[row2]);
+            default:
+                return compareNames(page1.names[row1], page2.names[row2]);
+        }
+    }
+
+    /**
+     * Compare two rows the way the provider sorts them: by sort key, then by id.
+     */
+    int compareRows(ProductPage page1, int row1, ProductPage page2, int row2) {
+        int byKey = compareKeys(page1, row1, page2, row2);
+        return byKey != 0 ? byKey : compare(page1.ids[row1], page2.ids[row2]);
+    }
+
+    private static int compare(long value1, long value2) {
+        return value1 < value2 ? -1 : (value1 == value2 ? 0 : 1);
+    }
+
+    /**
+     * Compare two names with SQLite's NOCASE collation, which only folds ASCII letters.
+     */
+    private static int compareNames(String name1, String name2) {
+        int length = Math.min(name1.length(), name2.length());
+        for (int i = 0; i < length; i++) {
+            char c1 = name1.charAt(i);
+            char c2 = name2.charAt(i);
+            if (c1 >= 'A' && c1 <= 'Z') {
+                c1 += 'a' - 'A';
+            }
+            if (c2 >= 'A' && c2 <= 'Z') {
+                c2 += 'a' - 'A';
+            }
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return name1.length() - name2.length();
+    }
+}
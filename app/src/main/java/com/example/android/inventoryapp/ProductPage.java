@@ -0,0 +1,139 @@
+package com.example.android.inventoryapp;
+
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ProductPage} is an in-memory copy of one page of the product list. The rows are copied
+ * out of the {@link Cursor} column by column, so the cursor (and its CursorWindow) can be closed
+ * as soon as the page has been read.
+ */
+public final class ProductPage {
+
+    /** Columns a page is built from */
+    public static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID };
+
+    /** Page without rows */
+    static final ProductPage EMPTY = new ProductPage(0);
+
+    final long[] ids;
+    final String[] names;
+    final int[] quantities;
+    /** Prices, kept as stored so they can serve as page keys */
+    final double[] prices;
+    final String[] images;
+    final long[] supplierIds;
+
+    private ProductPage(int size) {
+        ids = new long[size];
+        names = new String[size];
+        quantities = new int[size];
+        prices = new double[size];
+        images = new String[size];
+        supplierIds = new long[size];
+    }
+
+    /**
+     * Read every row of the cursor into pages of at most pageSize rows. The cursor is closed.
+     *
+     * @param cursor   cursor with the {@link #PROJECTION} columns
+     * @param pageSize maximum number of rows per page
+     * @param reversed whether the cursor holds the rows in descending order
+     * @return the pages, in ascending order
+     */
+    static List<ProductPage> read(Cursor cursor, int pageSize, boolean reversed) {
+        List<ProductPage> pages = new ArrayList<>();
+        try {
+            int count = cursor.getCount();
+
+            // Find the columns once for the whole cursor
+            int idColumnIndex = cursor.getColumnIndex(ProductEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+            int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+            int imageColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_IMAGE);
+            int supplierColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID);
+
+            for (int start = 0; start < count; start += pageSize) {
+                ProductPage page = new ProductPage(Math.min(pageSize, count - start));
+                for (int i = 0; i < page.size(); i++) {
+                    int row = start + i;
+                    cursor.moveToPosition(reversed ? count - 1 - row : row);
+                    page.ids[i] = cursor.getLong(idColumnIndex);
+                    page.names[i] = cursor.getString(nameColumnIndex);
+                    page.quantities[i] = cursor.getInt(quantityColumnIndex);
+                    page.prices[i] = cursor.getDouble(priceColumnIndex);
+                    page.images[i] = cursor.getString(imageColumnIndex);
+                    page.supplierIds[i] = cursor.getLong(supplierColumnIndex);
+                }
+                pages.add(page);
+            }
+        } finally {
+            cursor.close();
+        }
+        return pages;
+    }
+
+    /**
+     * Number of rows in the page.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Position of the row with the given id, or -1 if it's not in the page.
+     */
+    int indexOf(long id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy of this page with one row replaced by a row of another page. Pages are shared with the
+     * snapshots handed out, so they're never changed in place.
+     *
+     * @param row       position of the row to replace
+     * @param source    page holding the new row
+     * @param sourceRow position of the new row in the source page
+     */
+    ProductPage withRow(int row, ProductPage source, int sourceRow) {
+        ProductPage page = new ProductPage(size());
+        copyRows(this, 0, page, 0, size());
+        copyRows(source, sourceRow, page, row, 1);
+        return page;
+    }
+
+    /**
+     * Copy of this page without the given row.
+     */
+    ProductPage withoutRow(int row) {
+        ProductPage page = new ProductPage(size() - 1);
+        copyRows(this, 0, page, 0, row);
+        copyRows(this, row + 1, page, row, size() - row - 1);
+        return page;
+    }
+
+    private static void copyRows(ProductPage from, int fromRow, ProductPage to, int toRow, int count) {
+        System.arraycopy(from.ids, fromRow, to.ids, toRow, count);
+        System.arraycopy(from.names, fromRow, to.names, toRow, count);
+        System.arraycopy(from.quantities, fromRow, to.quantities, toRow, count);
+        System.arraycopy(from.prices, fromRow, to.prices, toRow, count);
+        System.arraycopy(from.images, fromRow, to.images, toRow, count);
+        System.arraycopy(from.supplierIds, fromRow, to.supplierIds, toRow, count);
+    }
+}
@@ -0,0 +1,486 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.text.TextUtils;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link ProductPager} loads the product list a page at a time, off the UI thread, as the user
+ * scrolls. It uses the keyset pagination of the provider and keeps a window of at most
+ * {@link #MAX_PAGES} pages in memory: loading a page at one end drops a page at the other end.
+ *
+ * The list is sorted and filtered by a {@link ProductFilter}.
+ *
+ * Changes to single products (notified on their own URI) are patched into the window: the changed
+ * rows are read with one query by id, and only the pages holding them are copied. The window is
+ * reloaded only when a change can move rows, i.e. a sort key changed or a row starts matching the
+ * filters inside it. Rows that stop matching the filters are dropped like deleted ones.
+ */
+public class ProductPager {
+
+    /**
+     * Callback for changes in the loaded rows.
+     */
+    public interface Listener {
+        /**
+         * Called on the UI thread when the loaded rows have changed.
+         *
+         * @param snapshot the rows loaded now
+         */
+        void onProductsChanged(ProductSnapshot snapshot);
+    }
+
+    /** Number of rows per page */
+    public static final int PAGE_SIZE = 50;
+
+    /** Maximum number of pages kept in memory */
+    public static final int MAX_PAGES = 6;
+
+    private static final int LOAD_RELOAD = 0;
+    private static final int LOAD_NEXT = 1;
+    private static final int LOAD_PREVIOUS = 2;
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+
+    /** Loaded pages, in list order */
+    private final List<ProductPage> mPages = new ArrayList<>();
+
+    /** Whether the first loaded row is the first row of the list */
+    private boolean mAtStart = true;
+
+    /** Whether the last loaded row is the last row of the list */
+    private boolean mAtEnd = false;
+
+    /** Search text the list is filtered by (null shows every product) */
+    private String mSearchText = null;
+
+    /** Sort and filters of the list */
+    private ProductFilter mFilter = ProductFilter.DEFAULT;
+
+    /** Incremented to discard the result of the load in flight */
+    private int mGeneration = 0;
+
+    /** Whether a load is in flight */
+    private boolean mLoading = false;
+
+    /** Whether a reload was asked for while a load was in flight */
+    private boolean mReloadPending = false;
+
+    /** Ids of the changed products waiting to be patched */
+    private final Set<Long> mChangedIds = new LinkedHashSet<>();
+
+    /** Whether a patch is in flight */
+    private boolean mPatching = false;
+
+    /** Patches or reloads the window when the products change */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Platforms before API 16 don't say what changed
+            reload();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long id = getProductId(uri);
+            if (id == -1) {
+                reload();
+            } else {
+                onProductChanged(id);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ProductPager}.
+     *
+     * @param resolver content resolver to load the products from
+     * @param listener callback for changes in the loaded rows
+     */
+    public ProductPager(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Start watching the products and load the first pages.
+     *
+     * @param filter sort and filters of the list
+     */
+    public void start(ProductFilter filter) {
+        mFilter = filter;
+        mResolver.registerContentObserver(ProductEntry.CONTENT_URI, true, mObserver);
+        reload();
+    }
+
+    /**
+     * Stop watching the products and ignore the load in flight, if any.
+     */
+    public void stop() {
+        mResolver.unregisterContentObserver(mObserver);
+        mGeneration++;
+        mReloadPending = false;
+        mChangedIds.clear();
+    }
+
+    /**
+     * Filter the list by the given search text, or show every product if it's empty.
+     */
+    public void setSearchText(String searchText) {
+        mSearchText = TextUtils.isEmpty(searchText) ? null : searchText;
+        mAtStart = true;
+        reload();
+    }
+
+    /**
+     * Sort and filter the list, starting again from the top.
+     */
+    public void setFilter(ProductFilter filter) {
+        mFilter = filter;
+        mAtStart = true;
+        reload();
+    }
+
+    /**
+     * Load the page after the last loaded row, unless it's already loaded or loading.
+     */
+    public void loadNext() {
+        if (mLoading || mAtEnd || mSearchText != null || mPages.isEmpty()) {
+            return;
+        }
+        ProductPage last = mPages.get(mPages.size() - 1);
+        Uri.Builder builder = mFilter.appendTo(ProductEntry.CONTENT_URI.buildUpon())
+                .appendQueryParameter(ProductContract.PARAM_LIMIT, String.valueOf(PAGE_SIZE));
+        mFilter.appendKey(builder, last, last.size() - 1, true, 0);
+        load(LOAD_NEXT, builder.build(), false);
+    }
+
+    /**
+     * Load the page before the first loaded row, unless it's already loaded or loading.
+     */
+    public void loadPrevious() {
+        if (mLoading || mAtStart || mSearchText != null || mPages.isEmpty()) {
+            return;
+        }
+        Uri.Builder builder = mFilter.appendTo(ProductEntry.CONTENT_URI.buildUpon())
+                .appendQueryParameter(ProductContract.PARAM_LIMIT, String.valueOf(PAGE_SIZE));
+        mFilter.appendKey(builder, mPages.get(0), 0, false, 0);
+        load(LOAD_PREVIOUS, builder.build(), true);
+    }
+
+    /**
+     * Load again every row of the current window.
+     */
+    public void reload() {
+        mGeneration++;
+        // The reload reads the changed rows too
+        mChangedIds.clear();
+        if (mLoading) {
+            mReloadPending = true;
+            return;
+        }
+
+        Uri uri;
+        if (mSearchText != null) {
+            uri = mFilter.appendTo(ProductEntry.buildSearchUri(mSearchText).buildUpon())
+                    .appendQueryParameter(ProductContract.PARAM_LIMIT, String.valueOf(PAGE_SIZE * MAX_PAGES))
+                    .build();
+        } else {
+            Uri.Builder builder = mFilter.appendTo(ProductEntry.CONTENT_URI.buildUpon())
+                    .appendQueryParameter(ProductContract.PARAM_LIMIT,
+                            String.valueOf(PAGE_SIZE * Math.max(1, mPages.size())));
+            if (!mAtStart && !mPages.isEmpty()) {
+                // Start at the first loaded row, included: same key and an id from it onwards
+                mFilter.appendKey(builder, mPages.get(0), 0, true, -1);
+            }
+            uri = builder.build();
+        }
+        load(LOAD_RELOAD, uri, false);
+    }
+
+    /**
+     * Read the product id of a single product URI, or return -1 for any other URI.
+     */
+    private static long getProductId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 2 || !ProductContract.PATH_PRODUCTS.equals(segments.get(0))
+                || !TextUtils.isDigitsOnly(segments.get(1))) {
+            return -1;
+        }
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Queue a changed product to be patched into the window.
+     */
+    private void onProductChanged(long id) {
+        if (mSearchText != null) {
+            // A change can make a product start or stop matching
+            reload();
+            return;
+        }
+        mChangedIds.add(id);
+        if (mChangedIds.size() > PAGE_SIZE) {
+            // Cheaper to read the window again
+            reload();
+            return;
+        }
+        patch();
+    }
+
+    /**
+     * Read the queued changed products in the background, unless a patch is already in flight.
+     */
+    private void patch() {
+        if (mPatching || mChangedIds.isEmpty()) {
+            return;
+        }
+        long[] ids = new long[mChangedIds.size()];
+        int i = 0;
+        for (long id : mChangedIds) {
+            ids[i++] = id;
+        }
+        mChangedIds.clear();
+        mPatching = true;
+        new PatchTask(this, mGeneration, mFilter, ids).execute();
+    }
+
+    /**
+     * Apply the changed rows read by a patch. Runs on the UI thread.
+     *
+     * @param ids  ids of the products that changed
+     * @param rows the rows of those products that still exist, null if they couldn't be read
+     */
+    private void onPatched(PatchTask task, long[] ids, ProductPage rows) {
+        mPatching = false;
+        if (task.mGeneration != mGeneration || mSearchText != null) {
+            // A reload has read them in the meantime
+            patch();
+            return;
+        }
+        if (rows == null) {
+            reload();
+            return;
+        }
+
+        boolean changed = false;
+        for (long id : ids) {
+            int rowIndex = rows.indexOf(id);
+            int pageIndex = -1;
+            int row = -1;
+            for (int i = 0; i < mPages.size() && row == -1; i++) {
+                row = mPages.get(i).indexOf(id);
+                pageIndex = i;
+            }
+
+            if (row == -1) {
+                // Not loaded: only matters if it's a row, new or now matching, that sorts into the window
+                if (rowIndex != -1 && isInWindow(rows, rowIndex)) {
+                    reload();
+                    return;
+                }
+                continue;
+            }
+
+            ProductPage page = mPages.get(pageIndex);
+            if (rowIndex == -1) {
+                // Deleted, or no longer matching the filters
+                if (page.size() == 1) {
+                    mPages.remove(pageIndex);
+                } else {
+                    mPages.set(pageIndex, page.withoutRow(row));
+                }
+            } else if (mFilter.compareKeys(page, row, rows, rowIndex) != 0) {
+                // Its sort key changed, so it may have moved
+                reload();
+                return;
+            } else {
+                mPages.set(pageIndex, page.withRow(row, rows, rowIndex));
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            mListener.onProductsChanged(ProductSnapshot.of(mPages));
+        }
+        patch();
+    }
+
+    /**
+     * Whether a row belongs between the first and last loaded rows, or beyond them at an end of the
+     * list that is loaded.
+     */
+    private boolean isInWindow(ProductPage rows, int rowIndex) {
+        if (mPages.isEmpty()) {
+            return true;
+        }
+        ProductPage first = mPages.get(0);
+        ProductPage last = mPages.get(mPages.size() - 1);
+        int lastRow = last.size() - 1;
+        boolean afterStart = mAtStart || mFilter.compareRows(rows, rowIndex, first, 0) >= 0;
+        boolean beforeEnd = mAtEnd || mFilter.compareRows(rows, rowIndex, last, lastRow) <= 0;
+        return afterStart && beforeEnd;
+    }
+
+    /**
+     * Run a load in the background.
+     */
+    private void load(int type, Uri uri, boolean reversed) {
+        mLoading = true;
+        new LoadTask(this, mGeneration, type, uri, reversed).execute();
+    }
+
+    /**
+     * Apply the result of a load. Runs on the UI thread.
+     */
+    private void onLoaded(LoadTask task, List<ProductPage> pages) {
+        mLoading = false;
+        if (task.mGeneration != mGeneration) {
+            // Stale result: a reload was asked for in the meantime
+            if (mReloadPending) {
+                mReloadPending = false;
+                reload();
+            }
+            return;
+        }
+
+        switch (task.mType) {
+            case LOAD_RELOAD:
+                if (pages.isEmpty() && !mAtStart) {
+                    // Every row from the window onwards is gone, start over from the top
+                    mAtStart = true;
+                    reload();
+                    return;
+                }
+                int rows = 0;
+                for (ProductPage page : pages) {
+                    rows += page.size();
+                }
+                mPages.clear();
+                mPages.addAll(pages);
+                mAtEnd = mSearchText != null || rows < PAGE_SIZE * Math.max(1, pages.size());
+                break;
+
+            case LOAD_NEXT:
+                if (pages.isEmpty()) {
+                    mAtEnd = true;
+                    break;
+                }
+                mPages.add(pages.get(0));
+                mAtEnd = pages.get(0).size() < PAGE_SIZE;
+                while (mPages.size() > MAX_PAGES) {
+                    mPages.remove(0);
+                    mAtStart = false;
+                }
+                break;
+
+            case LOAD_PREVIOUS:
+                if (pages.isEmpty()) {
+                    mAtStart = true;
+                    break;
+                }
+                mPages.add(0, pages.get(0));
+                mAtStart = pages.get(0).size() < PAGE_SIZE;
+                while (mPages.size() > MAX_PAGES) {
+                    mPages.remove(mPages.size() - 1);
+                    mAtEnd = false;
+                }
+                break;
+        }
+
+        mListener.onProductsChanged(ProductSnapshot.of(mPages));
+    }
+
+    /**
+     * Loads pages from the provider on a background thread.
+     */
+    private static class LoadTask extends AsyncTask<Void, Void, List<ProductPage>> {
+        private final ProductPager mPager;
+        private final int mGeneration;
+        private final int mType;
+        private final Uri mUri;
+        private final boolean mReversed;
+
+        LoadTask(ProductPager pager, int generation, int type, Uri uri, boolean reversed) {
+            mPager = pager;
+            mGeneration = generation;
+            mType = type;
+            mUri = uri;
+            mReversed = reversed;
+        }
+
+        @Override
+        protected List<ProductPage> doInBackground(Void... params) {
+            Cursor cursor = mPager.mResolver.query(mUri, ProductPage.PROJECTION, null, null, null);
+            if (cursor == null) {
+                return Collections.emptyList();
+            }
+            return ProductPage.read(cursor, PAGE_SIZE, mReversed);
+        }
+
+        @Override
+        protected void onPostExecute(List<ProductPage> pages) {
+            mPager.onLoaded(this, pages);
+        }
+    }
+
+    /**
+     * Reads the rows of some changed products, with one query, on a background thread.
+     */
+    private static class PatchTask extends AsyncTask<Void, Void, ProductPage> {
+        private final ProductPager mPager;
+        private final int mGeneration;
+        private final ProductFilter mFilter;
+        private final long[] mIds;
+
+        PatchTask(ProductPager pager, int generation, ProductFilter filter, long[] ids) {
+            mPager = pager;
+            mGeneration = generation;
+            mFilter = filter;
+            mIds = ids;
+        }
+
+        @Override
+        protected ProductPage doInBackground(Void... params) {
+            StringBuilder selection = new StringBuilder(ProductEntry._ID).append(" IN (");
+            String[] selectionArgs = new String[mIds.length];
+            for (int i = 0; i < mIds.length; i++) {
+                selection.append(i == 0 ? "?" : ", ?");
+                selectionArgs[i] = String.valueOf(mIds[i]);
+            }
+            selection.append(')');
+
+            // With the filters, so rows that stopped matching read as deleted
+            Cursor cursor = mPager.mResolver.query(mFilter.appendTo(ProductEntry.CONTENT_URI.buildUpon()).build(),
+                    ProductPage.PROJECTION, selection.toString(), selectionArgs, null);
+            if (cursor == null) {
+                return null;
+            }
+            List<ProductPage> pages = ProductPage.read(cursor, mIds.length, false);
+            return pages.isEmpty() ? ProductPage.EMPTY : pages.get(0);
+        }
+
+        @Override
+        protected void onPostExecute(ProductPage rows) {
+            mPager.onPatched(this, mIds, rows);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.inventoryapp;
+
+import java.util.List;
+
+/**
+ * {@link ProductSnapshot} is an immutable view of the pages a {@link ProductPager} has loaded.
+ * Pages are never modified once built, so a snapshot can be read from any thread, e.g. to diff it
+ * against the next one in the background.
+ */
+public final class ProductSnapshot {
+
+    /** Snapshot without products */
+    public static final ProductSnapshot EMPTY = new ProductSnapshot(new ProductPage[0]);
+
+    private final ProductPage[] mPages;
+
+    /** Position of the first row of each page */
+    private final int[] mOffsets;
+
+    private final int mCount;
+
+    private ProductSnapshot(ProductPage[] pages) {
+        mPages = pages;
+        mOffsets = new int[pages.length];
+        int count = 0;
+        for (int i = 0; i < pages.length; i++) {
+            mOffsets[i] = count;
+            count += pages[i].size();
+        }
+        mCount = count;
+    }
+
+    /**
+     * Build a snapshot of the given pages, in list order.
+     */
+    static ProductSnapshot of(List<ProductPage> pages) {
+        return new ProductSnapshot(pages.toArray(new ProductPage[pages.size()]));
+    }
+
+    /**
+     * Number of products.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Id of the product at the given position.
+     */
+    public long getId(int position) {
+        int page = pageOf(position);
+        return mPages[page].ids[position - mOffsets[page]];
+    }
+
+    /**
+     * Name of the product at the given position.
+     */
+    public String getName(int position) {
+        int page = pageOf(position);
+        return mPages[page].names[position - mOffsets[page]];
+    }
+
+    /**
+     * Quantity of the product at the given position.
+     */
+    public int getQuantity(int position) {
+        int page = pageOf(position);
+        return mPages[page].quantities[position - mOffsets[page]];
+    }
+
+    /**
+     * Price of the product at the given position.
+     */
+    public float getPrice(int position) {
+        int page = pageOf(position);
+        return (float) mPages[page].prices[position - mOffsets[page]];
+    }
+
+    /**
+     * Image of the product at the given position.
+     */
+    public String getImage(int position) {
+        int page = pageOf(position);
+        return mPages[page].images[position - mOffsets[page]];
+    }
+
+    /**
+     * Find the page holding the given position.
+     */
+    private int pageOf(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + mCount);
+        }
+        int page = mPages.length - 1;
+        while (mOffsets[page] > position) {
+            page--;
+        }
+        return page;
+    }
+}
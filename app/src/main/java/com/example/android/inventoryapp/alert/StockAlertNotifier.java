@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.alert;
+
+import android.annotation.TargetApi;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+import com.example.android.inventoryapp.EditorActivity;
+import com.example.android.inventoryapp.R;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Shows stock alerts as notifications, one per product. A new alert for a product replaces the
+ * notification of the previous one, and tapping it opens the product in the editor.
+ */
+public class StockAlertNotifier {
+
+    /** Notification channel of the stock alerts */
+    private static final String CHANNEL_ID = "stock_alerts";
+
+    /** Tag of the notifications, so their ids (the product ids) can't clash with others */
+    private static final String NOTIFICATION_TAG = "stock_alert";
+
+    private final Context mContext;
+    private final NotificationManagerCompat mNotificationManager;
+
+    /**
+     * Constructs a new {@link StockAlertNotifier}.
+     *
+     * @param context of the app
+     */
+    public StockAlertNotifier(Context context) {
+        mContext = context.getApplicationContext();
+        mNotificationManager = NotificationManagerCompat.from(mContext);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            createChannel();
+        }
+    }
+
+    /**
+     * Show the alert of a product that reached its reorder point.
+     *
+     * @param productId    the product
+     * @param productName  name of the product
+     * @param quantity     quantity left when the alert was raised
+     * @param reorderPoint reorder point of the product
+     */
+    public void notifyLowStock(long productId, String productName, int quantity, int reorderPoint) {
+        Intent editIntent = new Intent(mContext, EditorActivity.class);
+        editIntent.setData(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, productId));
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, (int) productId, editIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_sys_warning)
+                .setContentTitle(mContext.getString(R.string.stock_alert_title, productName))
+                .setContentText(mContext.getString(R.string.stock_alert_text, quantity, reorderPoint))
+                .setCategory(NotificationCompat.CATEGORY_STATUS)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true);
+        mNotificationManager.notify(NOTIFICATION_TAG, (int) productId, builder.build());
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private void createChannel() {
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                mContext.getString(R.string.stock_alert_channel), NotificationManager.IMPORTANCE_DEFAULT);
+        NotificationManager manager = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        manager.createNotificationChannel(channel);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonWriter;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the product catalog as CSV or JSON, in the layout {@link CatalogImporter} reads.
+ *
+ * Rows are read in chunks of {@link #CHUNK_SIZE} ordered by _id, each chunk starting after the last
+ * _id of the previous one, and written out as they're read. Only one chunk is held at a time, so
+ * memory use doesn't grow with the catalog.
+ */
+class CatalogExporter {
+
+    /** Rows read per query */
+    static final int CHUNK_SIZE = 500;
+
+    /** Columns written for every product, after the _id */
+    private static final String[] COLUMNS = CatalogImporter.COLUMNS;
+
+    private static final String SQL_CHUNK = buildChunkSql();
+
+    private final SQLiteDatabase mDatabase;
+
+    CatalogExporter(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Write the whole catalog to the given stream. Doesn't close the stream.
+     *
+     * @param output where to write
+     * @param format {@link ProductContract#EXPORT_CSV} or {@link ProductContract#EXPORT_JSON}
+     */
+    void export(OutputStream output, String format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        if (ProductContract.EXPORT_JSON.equals(format)) {
+            exportJson(writer);
+        } else {
+            exportCsv(writer);
+        }
+        writer.flush();
+    }
+
+    private void exportCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        long lastId = -1;
+        Cursor cursor;
+        while ((cursor = queryChunk(lastId)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writeCsvField(writer, cursor.getString(i + 1));
+                    }
+                    writer.write("\r\n");
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private void exportJson(Writer writer) throws IOException {
+        // Not closed: that would close the stream the caller owns
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+
+        long lastId = -1;
+        Cursor cursor;
+        while ((cursor = queryChunk(lastId)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    json.beginObject();
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        int column = i + 1;
+                        json.name(COLUMNS[i]);
+                        switch (cursor.getType(column)) {
+                            case Cursor.FIELD_TYPE_NULL:
+                                json.nullValue();
+                                break;
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                json.value(cursor.getLong(column));
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                json.value(cursor.getDouble(column));
+                                break;
+                            default:
+                                json.value(cursor.getString(column));
+                                break;
+                        }
+                    }
+                    json.endObject();
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        json.endArray();
+        json.flush();
+    }
+
+    /**
+     * Query the chunk of rows following the given _id, or return null if there are none left.
+     */
+    private Cursor queryChunk(long lastId) {
+        Cursor cursor = mDatabase.rawQuery(SQL_CHUNK, new String[] { String.valueOf(lastId) });
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Write a CSV field, quoting it if it holds a separator, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static String buildChunkSql() {
+        StringBuilder sql = new StringBuilder("SELECT ").append(ProductEntry._ID);
+        for (String column : COLUMNS) {
+            sql.append(", ").append(column);
+        }
+        return sql.append(" FROM ").append(ProductEntry.VIEW_NAME)
+                .append(" WHERE ").append(ProductEntry._ID).append(" > ?")
+                .append(" ORDER BY ").append(ProductEntry._ID)
+                .append(" LIMIT ").append(CHUNK_SIZE).toString();
+    }
+}
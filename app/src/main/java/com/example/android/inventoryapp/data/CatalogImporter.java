@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Imports a product catalog from a CSV or JSON file.
+ *
+ * The file is streamed one row at a time and never loaded whole. Each row is checked with the
+ * {@link ProductValidator} rules; valid rows are collected into batches that are written with
+ * {@link ContentResolver#bulkInsert}, one transaction per batch. Reading waits for each batch to be
+ * written, so memory use is bounded by the batch size whatever the file size.
+ *
+ * CSV files start with a header row naming the product columns ({@link #COLUMNS}); JSON files hold
+ * an array of objects keyed by the same names. Unknown columns are ignored, the image and the SKU are optional.
+ */
+public class CatalogImporter {
+
+    /**
+     * Callback for the import progress.
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the importing thread after each batch has been written.
+         *
+         * @param rowsRead     rows read from the file so far
+         * @param rowsImported rows written so far
+         */
+        void onProgress(int rowsRead, int rowsImported);
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static class Result {
+        /** Rows read from the file */
+        public int rowsRead;
+
+        /** Rows written to the database */
+        public int rowsImported;
+
+        /** Rows rejected, each one described in the error log */
+        public int rowsRejected;
+
+        /** Whether the import was cancelled before the end of the file */
+        public boolean cancelled;
+    }
+
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_JSON = 1;
+
+    /** Rows written per transaction unless told otherwise */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Product columns that can be imported */
+    public static final String[] COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_DESCRIPTION,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_REORDER_POINT,
+            ProductEntry.COLUMN_PRODUCT_TARGET_STOCK,
+            ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+            ProductEntry.COLUMN_PRODUCT_SKU };
+
+    private static final Set<String> COLUMN_SET = new HashSet<>(Arrays.asList(COLUMNS));
+
+    private final ContentResolver mResolver;
+    private final int mBatchSize;
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Constructs a new {@link CatalogImporter}.
+     *
+     * @param resolver  content resolver to write the products through
+     * @param batchSize rows written per transaction
+     */
+    public CatalogImporter(ContentResolver resolver, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        mResolver = resolver;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Stop the import after the batch being written. Can be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Import a catalog. Blocks until the whole file has been read, so never call it on the UI
+     * thread.
+     *
+     * @param input    the catalog file
+     * @param format   {@link #FORMAT_CSV} or {@link #FORMAT_JSON}
+     * @param errorLog where rejected rows are described, one line per row
+     * @param listener progress callback, may be null
+     * @return the outcome of the import
+     * @throws IOException if the file can't be read or isn't well formed
+     */
+    public Result importCatalog(InputStream input, int format, Writer errorLog, ProgressListener listener)
+            throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        Batch batch = new Batch(errorLog, listener);
+        if (format == FORMAT_JSON) {
+            readJson(reader, batch);
+        } else {
+            readCsv(reader, batch);
+        }
+        batch.flush();
+        errorLog.flush();
+
+        batch.mResult.cancelled = mCancelled;
+        return batch.mResult;
+    }
+
+    /**
+     * Read CSV rows into the batch.
+     */
+    private void readCsv(Reader reader, Batch batch) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> header = csv.readRecord();
+        if (header == null) {
+            return;
+        }
+
+        List<String> record;
+        while (!mCancelled && (record = csv.readRecord()) != null) {
+            // Skip blank lines
+            if (record.size() == 1 && record.get(0).isEmpty()) {
+                continue;
+            }
+            ContentValues row = new ContentValues();
+            String error = null;
+            for (int i = 0; i < header.size() && i < record.size(); i++) {
+                String column = header.get(i).trim();
+                if (COLUMN_SET.contains(column)) {
+                    error = putColumn(row, column, record.get(i).trim());
+                    if (error != null) {
+                        break;
+                    }
+                }
+            }
+            batch.add(csv.getLine(), row, error);
+        }
+    }
+
+    /**
+     * Read a JSON array of product objects into the batch.
+     */
+    private void readJson(Reader reader, Batch batch) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.beginArray();
+        int index = 0;
+        while (!mCancelled && json.hasNext()) {
+            index++;
+            ContentValues row = new ContentValues();
+            String error = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String column = json.nextName();
+                if (!COLUMN_SET.contains(column) || json.peek() == JsonToken.NULL || error != null) {
+                    json.skipValue();
+                    continue;
+                }
+                // Numbers come back as their text, so both formats share the conversions
+                error = putColumn(row, column, json.nextString().trim());
+            }
+            json.endObject();
+            batch.add(index, row, error);
+        }
+    }
+
+    /**
+     * Convert a column value the way the editor does.
+     *
+     * @return an error message, or null if the value was added to the row
+     */
+    private static String putColumn(ContentValues row, String column, String value) {
+        if (value.isEmpty()) {
+            // Left out, and reported by the validation if it's required
+            return null;
+        }
+        try {
+            if (ProductEntry.COLUMN_PRODUCT_QUANTITY.equals(column)
+                    || ProductEntry.COLUMN_PRODUCT_REORDER_POINT.equals(column)
+                    || ProductEntry.COLUMN_PRODUCT_TARGET_STOCK.equals(column)) {
+                row.put(column, Integer.parseInt(value));
+            } else if (ProductEntry.COLUMN_PRODUCT_PRICE.equals(column)) {
+                row.put(column, new BigDecimal(value).setScale(2, BigDecimal.ROUND_HALF_UP).floatValue());
+            } else {
+                row.put(column, value);
+            }
+            return null;
+        } catch (NumberFormatException e) {
+            return "invalid " + column + " '" + value + "'";
+        }
+    }
+
+    /**
+     * Describe a {@link ProductValidator} error.
+     */
+    private static String describe(int error) {
+        switch (error) {
+            case ProductValidator.ERROR_NAME_REQUIRED:
+                return "name is required";
+            case ProductValidator.ERROR_DESCRIPTION_REQUIRED:
+                return "description is required";
+            case ProductValidator.ERROR_QUANTITY_REQUIRED:
+                return "quantity is required";
+            case ProductValidator.ERROR_QUANTITY_TOO_HIGH:
+                return "quantity is above " + ProductValidator.MAX_QUANTITY;
+            case ProductValidator.ERROR_QUANTITY_TOO_LOW:
+                return "quantity is below " + ProductValidator.MIN_QUANTITY;
+            case ProductValidator.ERROR_PRICE_REQUIRED:
+                return "price is required";
+            case ProductValidator.ERROR_SUPPLIER_NAME_REQUIRED:
+                return "supplier name is required";
+            case ProductValidator.ERROR_SUPPLIER_EMAIL_REQUIRED:
+                return "supplier email is required";
+            default:
+                return "invalid product";
+        }
+    }
+
+    /**
+     * Validates rows and writes them in batches.
+     */
+    private class Batch {
+        private final List<ContentValues> mRows = new ArrayList<>(mBatchSize);
+        private final Writer mErrorLog;
+        private final ProgressListener mListener;
+        private final Result mResult = new Result();
+
+        Batch(Writer errorLog, ProgressListener listener) {
+            mErrorLog = errorLog;
+            mListener = listener;
+        }
+
+        /**
+         * Add a row, or log it if it's not valid.
+         *
+         * @param line  line (CSV) or index (JSON) of the row, for the error log
+         * @param row   the product columns
+         * @param error conversion error, null if every column was converted
+         */
+        void add(int line, ContentValues row, String error) throws IOException {
+            mResult.rowsRead++;
+            if (error == null) {
+                int validation = ProductValidator.validate(row);
+                if (validation != ProductValidator.VALID) {
+                    error = describe(validation);
+                }
+            }
+            if (error != null) {
+                mResult.rowsRejected++;
+                mErrorLog.write("row " + line + ": " + error + "\n");
+                return;
+            }
+
+            mRows.add(row);
+            if (mRows.size() >= mBatchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * Write the pending rows in one transaction.
+         */
+        void flush() {
+            if (mRows.isEmpty()) {
+                return;
+            }
+            int inserted = mResolver.bulkInsert(ProductEntry.CONTENT_URI,
+                    mRows.toArray(new ContentValues[mRows.size()]));
+            mResult.rowsImported += inserted;
+            mResult.rowsRejected += mRows.size() - inserted;
+            mRows.clear();
+
+            if (mListener != null) {
+                mListener.onProgress(mResult.rowsRead, mResult.rowsImported);
+            }
+        }
+    }
+
+    /**
+     * Streaming reader of RFC 4180 CSV: fields separated by commas, optionally quoted, with ""
+     * for a quote and line breaks allowed inside quotes.
+     */
+    static class CsvReader {
+        private final Reader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private int mLine = 0;
+        private int mRecordLine = 0;
+        private int mNext = -2;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * Line number where the last record read started.
+         */
+        int getLine() {
+            return mRecordLine;
+        }
+
+        /**
+         * Read the next record, or return null at the end of the input.
+         */
+        List<String> readRecord() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            mLine++;
+            mRecordLine = mLine;
+
+            List<String> record = new ArrayList<>();
+            boolean quoted = false;
+            mField.setLength(0);
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quote in the record at line " + mRecordLine);
+                    }
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            read();
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        if (c == '\n') {
+                            mLine++;
+                        }
+                        mField.append((char) c);
+                    }
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    record.add(mField.toString());
+                    return record;
+                } else {
+                    mField.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (mNext != -2) {
+                int c = mNext;
+                mNext = -2;
+                return c;
+            }
+            return mReader.read();
+        }
+
+        private int peek() throws IOException {
+            if (mNext == -2) {
+                mNext = mReader.read();
+            }
+            return mNext;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+/**
+ * Full-text MATCH expressions for the product search.
+ */
+final class MatchExpression {
+
+    // To prevent someone from accidentally instantiating the class,
+    // give it an empty constructor.
+    private MatchExpression() {}
+
+    /**
+     * Turn free search text into an FTS MATCH expression that prefix matches every word.
+     * Return null if the text has no letters or digits.
+     */
+    static String build(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+}
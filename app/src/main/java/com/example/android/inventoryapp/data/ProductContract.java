@@ -17,6 +17,7 @@ package com.example.android.inventoryapp.data;
 
 import android.net.Uri;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.provider.BaseColumns;
 
 /**
@@ -37,6 +38,190 @@ public final class ProductContract {
     /** Path to get products */
     public static final String PATH_PRODUCTS = "products";
 
+    /** Path, below {@link #PATH_PRODUCTS}, to get inventory statistics */
+    public static final String PATH_STATS = "stats";
+
+    /** Path to get the stock alerts */
+    public static final String PATH_ALERTS = "alerts";
+
+    /** Path to get the supplier orders */
+    public static final String PATH_ORDERS = "orders";
+
+    /** Path, below a single order URI, to get its items */
+    public static final String PATH_ITEMS = "items";
+
+    /** Path to get the stock movements ledger */
+    public static final String PATH_MOVEMENTS = "movements";
+
+    /** Path to get the stock movement rollups. Followed by {@link #PATH_HOURLY} or {@link #PATH_DAILY}. */
+    public static final String PATH_ROLLUPS = "rollups";
+
+    /** Path, below {@link #PATH_ROLLUPS}, to get the hourly rollups */
+    public static final String PATH_HOURLY = "hourly";
+
+    /** Path, below {@link #PATH_ROLLUPS}, to get the daily rollups */
+    public static final String PATH_DAILY = "daily";
+
+    /** Path to get suppliers */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /** Path, below {@link #PATH_PRODUCTS}, to search products. Followed by the search text. */
+    public static final String PATH_SEARCH = "search";
+
+    /** Path, below a single product URI, to atomically adjust its quantity */
+    public static final String PATH_ADJUST = "adjust";
+
+    /** Path, below {@link #PATH_PRODUCTS}, to export the catalog. Followed by the format. */
+    public static final String PATH_EXPORT = "export";
+
+    /** Path, below {@link #PATH_PRODUCTS}, to look a product up by SKU. Followed by the SKU. */
+    public static final String PATH_SKU = "sku";
+
+    /** Export format: CSV with a header row of column names */
+    public static final String EXPORT_CSV = "csv";
+
+    /** Export format: JSON array with one object per product */
+    public static final String EXPORT_JSON = "json";
+
+    /**
+     * Provider method ({@link ContentResolver#call}) that atomically adds {@link #KEY_DELTA} to the
+     * quantity of the product whose id is passed as the argument. The returned bundle holds the
+     * new quantity under {@link #KEY_QUANTITY}, or is null when the product doesn't exist or the
+     * quantity would go out of the range {@link ProductValidator} allows. An adjustment carrying a
+     * {@link #KEY_TOKEN} already applied isn't applied again, and returns the current quantity.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /**
+     * Provider method ({@link ContentResolver#call}) that creates one {@link OrderEntry order} per
+     * supplier for all the products at or below their reorder point, bringing them up to their
+     * target stock. Products already on an order that hasn't been sent are left out. The returned
+     * bundle holds the number of orders created under {@link #KEY_ORDER_COUNT}. Takes a while with
+     * a big catalog, so don't call it on the UI thread.
+     */
+    public static final String METHOD_GENERATE_ORDERS = "generate_orders";
+
+    /** Number of orders created by {@link #METHOD_GENERATE_ORDERS} */
+    public static final String KEY_ORDER_COUNT = "order_count";
+
+    /**
+     * Provider method ({@link ContentResolver#call}) that drops the stock movements older than
+     * {@link MovementEntry#RETENTION_DAYS} and the hourly rollups older than
+     * {@link RollupEntry#HOURLY_RETENTION_DAYS}, along with the adjustment tokens older than
+     * {@link AdjustmentEntry#RETENTION_DAYS}. The daily rollups are kept. The returned bundle holds
+     * the number of rows dropped under {@link #KEY_DELETED_COUNT}.
+     */
+    public static final String METHOD_COMPACT_LEDGER = "compact_ledger";
+
+    /** Number of rows dropped by {@link #METHOD_COMPACT_LEDGER} */
+    public static final String KEY_DELETED_COUNT = "deleted_count";
+
+    /**
+     * Provider method ({@link ContentResolver#call}) that gives the free pages of the database file
+     * back to the file system, a few at a time, e.g. after many products have been deleted. The
+     * returned bundle holds the number of pages freed under {@link #KEY_FREED_PAGES}.
+     */
+    public static final String METHOD_RECLAIM_SPACE = "reclaim_space";
+
+    /** Number of pages freed by {@link #METHOD_RECLAIM_SPACE} */
+    public static final String KEY_FREED_PAGES = "freed_pages";
+
+    /** Quantity change, for {@link #METHOD_ADJUST_QUANTITY} and the adjust URI */
+    public static final String KEY_DELTA = "delta";
+
+    /**
+     * Unique token of an adjustment, optional, for {@link #METHOD_ADJUST_QUANTITY} and the adjust
+     * URI. The provider remembers the tokens it has applied, in the same transaction as the
+     * change, so an adjustment sent again after its outcome was lost is only applied once.
+     */
+    public static final String KEY_TOKEN = "token";
+
+    /** Quantity after an adjustment, returned by {@link #METHOD_ADJUST_QUANTITY} */
+    public static final String KEY_QUANTITY = "quantity";
+
+    /**
+     * Query parameter that, set to "true", computes the statistics from the products table instead of
+     * reading the summary kept up to date by triggers. Slower, but doesn't depend on the summary.
+     */
+    public static final String PARAM_SCAN = "scan";
+
+    /**
+     * Query parameter with the maximum number of rows to return. On a delete of the products URI,
+     * the maximum number of rows to delete, lowest ids first, so a large delete can be run in chunks.
+     */
+    public static final String PARAM_LIMIT = "limit";
+
+    /**
+     * Query parameter of a product URI with the {@link ProductEntry#COLUMN_PRODUCT_VERSION version}
+     * the row was read at. The update is refused (0 rows) if the row has been written since.
+     */
+    public static final String PARAM_EXPECTED_VERSION = "expected_version";
+
+    /*
+     * Sorting and filtering of the products URI. Every combination of a sort and the filters reads
+     * the products through an index of the products table. The rows come in index order, except
+     * under the price range filter with a sort other than price, and the supplier filter with the
+     * quantity or price sort, where the matching rows are sorted after they're read.
+     */
+
+    /** Query parameter with the order of the products, one of the SORT_ values. Name by default. */
+    public static final String PARAM_SORT = "sort";
+
+    /** Sort by name (case insensitive) */
+    public static final String SORT_NAME = "name";
+
+    /** Sort by quantity, lowest first */
+    public static final String SORT_QUANTITY = "quantity";
+
+    /** Sort by price, cheapest first */
+    public static final String SORT_PRICE = "price";
+
+    /**
+     * Group by supplier, then sort by name. The groups come in the order the suppliers were added
+     * (by supplier id), not by supplier name, so every page is a range of an index.
+     */
+    public static final String SORT_SUPPLIER = "supplier";
+
+    /** Query parameter that, set to "true", only returns the products at or below their reorder point */
+    public static final String PARAM_LOW_STOCK = "low_stock";
+
+    /** Query parameter with the id of the supplier to return the products of */
+    public static final String PARAM_SUPPLIER_ID = "supplier_id";
+
+    /** Query parameter with the lowest price to return, included */
+    public static final String PARAM_MIN_PRICE = "min_price";
+
+    /** Query parameter with the highest price to return, included */
+    public static final String PARAM_MAX_PRICE = "max_price";
+
+    /*
+     * Keyset pagination for the products URI. Pages are sorted by the sort key and then by _id.
+     * Pass the key and _id of the last row of a page as after_.../after_id to get the rows that
+     * follow it, or those of the first row as before_.../before_id to get the rows that precede it.
+     * The key is the name for {@link #SORT_NAME}, the quantity or price as the value for
+     * {@link #SORT_QUANTITY} and {@link #SORT_PRICE}, and the supplier id as the value plus the name
+     * for {@link #SORT_SUPPLIER}. Rows before a key come nearest first, i.e. in descending order.
+     * Combine with {@link #PARAM_LIMIT} to set the page size.
+     */
+
+    /** Query parameter with the sort value of the row the page starts after */
+    public static final String PARAM_AFTER_VALUE = "after_value";
+
+    /** Query parameter with the sort value of the row the page ends before */
+    public static final String PARAM_BEFORE_VALUE = "before_value";
+
+    /** Query parameter with the name of the row the page starts after */
+    public static final String PARAM_AFTER_NAME = "after_name";
+
+    /** Query parameter with the _id of the row the page starts after */
+    public static final String PARAM_AFTER_ID = "after_id";
+
+    /** Query parameter with the name of the row the page ends before */
+    public static final String PARAM_BEFORE_NAME = "before_name";
+
+    /** Query parameter with the _id of the row the page ends before */
+    public static final String PARAM_BEFORE_ID = "before_id";
+
     /**
      * Inner class that defines constant values for the products database table.
      */
@@ -45,6 +230,26 @@ public final class ProductContract {
         /** The content URI to access the product data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /**
+         * The content URI to search products by name and description. Append the search text as a
+         * path segment (see {@link #buildSearchUri(String)}). Every word is prefix matched and the
+         * results come ranked, best match first.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to export the whole catalog as a stream. Append the format as a path
+         * segment (see {@link #buildExportUri(String)}) and open it with
+         * {@link ContentResolver#openInputStream}. The columns are those the catalog import reads.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The content URI to look products up by SKU. Use {@link #buildSkuUri(String)} to build
+         * the URI of a given SKU.
+         */
+        public static final Uri CONTENT_SKU_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SKU);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of products.
          */
@@ -55,12 +260,39 @@ public final class ProductContract {
          */
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS;
 
+        /** The MIME type of a CSV export */
+        public static final String CSV_TYPE = "text/csv";
+
+        /** The MIME type of a JSON export */
+        public static final String JSON_TYPE = "application/json";
+
         /** Database table for products */
         public final static String TABLE_NAME = "products";
 
+        /**
+         * Database view of the products joined with their supplier. Products are read from this view
+         * and written to {@link #TABLE_NAME}.
+         */
+        public final static String VIEW_NAME = "product_details";
+
+        /** Full-text index over the product name and description, kept in sync by triggers */
+        public final static String FTS_TABLE_NAME = "products_fts";
+
         /** Unique ID number for the product */
         public final static String _ID = BaseColumns._ID;
 
+        /** Products with this quantity or less are almost out of stock */
+        public static final int QUANTITY_CRITICAL = 5;
+
+        /** Products with this quantity or less are running low */
+        public static final int QUANTITY_LOW = 15;
+
+        /** Reorder point of products that don't set one */
+        public static final int DEFAULT_REORDER_POINT = QUANTITY_CRITICAL;
+
+        /** Target stock of products that don't set one */
+        public static final int DEFAULT_TARGET_STOCK = 2 * QUANTITY_LOW;
+
         /** Name of the product */
         public final static String COLUMN_PRODUCT_NAME ="name";
 
@@ -73,17 +305,402 @@ public final class ProductContract {
         /** Product price */
         public final static String COLUMN_PRODUCT_PRICE = "price";
 
-        /** Product image */
+        /**
+         * Product image: the SHA-256 hash of the image in the app's image store. Products saved by
+         * older versions of the app hold the URI of the picked image instead.
+         */
         public final static String COLUMN_PRODUCT_IMAGE = "image";
 
-        /** Product supplier name */
+        /**
+         * Product reorder point. When the quantity drops from above it to it or below, a
+         * {@link StockAlertEntry stock alert} is raised.
+         */
+        public final static String COLUMN_PRODUCT_REORDER_POINT = "reorder_point";
+
+        /** Product target stock, the quantity reorders bring the product up to */
+        public final static String COLUMN_PRODUCT_TARGET_STOCK = "target_stock";
+
+        /** ID of the product supplier in the {@link SupplierEntry#TABLE_NAME} table */
+        public final static String COLUMN_PRODUCT_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * Product supplier name, read from the suppliers table. Products are written with the
+         * supplier name and email together, and the provider links them to the matching supplier,
+         * adding it if it's new.
+         */
         public final static String COLUMN_PRODUCT_SUPPLIER_NAME = "supplier_name";
 
-        /** Product supplier email */
+        /** Product supplier email, read from the suppliers table (see {@link #COLUMN_PRODUCT_SUPPLIER_NAME}) */
         public final static String COLUMN_PRODUCT_SUPPLIER_EMAIL = "supplier_email";
 
+        /**
+         * Product version, incremented by the provider on every write of the row. Read only; pass
+         * it back with {@link ProductContract#PARAM_EXPECTED_VERSION} to reject stale updates.
+         */
+        public final static String COLUMN_PRODUCT_VERSION = "version";
+
+        /**
+         * Product SKU, the code on its barcode. Optional, but unique among the products that have
+         * one.
+         */
+        public final static String COLUMN_PRODUCT_SKU = "sku";
+
+        /**
+         * Build the URI that atomically adjusts the quantity of the given product. Update it with
+         * {@link ProductContract#KEY_DELTA} set to the quantity change; the update is rejected
+         * (0 rows) if the quantity would go below {@link ProductValidator#MIN_QUANTITY} or above
+         * {@link ProductValidator#MAX_QUANTITY}. A rejection leaves the rest of a batch alone, so
+         * batches that must not go on without it build the operation with
+         * {@code withExpectedCount(1)}. Set {@link ProductContract#KEY_TOKEN} too to make the
+         * update safe to send again.
+         */
+        public static Uri buildAdjustUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_ADJUST).build();
+        }
+
+        /**
+         * Build the URI that searches products for the given text.
+         */
+        public static Uri buildSearchUri(String text) {
+            return Uri.withAppendedPath(CONTENT_SEARCH_URI, Uri.encode(text));
+        }
+
+        /**
+         * Build the URI of the product with the given SKU.
+         */
+        public static Uri buildSkuUri(String sku) {
+            return Uri.withAppendedPath(CONTENT_SKU_URI, Uri.encode(sku));
+        }
 
+        /**
+         * Build the URI that exports the catalog in the given format,
+         * {@link ProductContract#EXPORT_CSV} or {@link ProductContract#EXPORT_JSON}.
+         */
+        public static Uri buildExportUri(String format) {
+            return Uri.withAppendedPath(CONTENT_EXPORT_URI, format);
+        }
     }
 
-}
+    /**
+     * Inner class that defines constant values for the suppliers database table.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the supplier data in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
 
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Database table for suppliers */
+        public final static String TABLE_NAME = "suppliers";
+
+        /** Unique ID number for the supplier */
+        public final static String _ID = BaseColumns._ID;
+
+        /** Name of the supplier. Together with the email it identifies the supplier. */
+        public final static String COLUMN_SUPPLIER_NAME = "name";
+
+        /** Email of the supplier */
+        public final static String COLUMN_SUPPLIER_EMAIL = "email";
+
+        /**
+         * Build the URI of the products of the given supplier. Updating the supplier changes what
+         * all of them show, with a single row write.
+         */
+        public static Uri buildProductsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_PRODUCTS).build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory statistics. The statistics are
+     * kept in summary tables updated by triggers on the products table, so reading them doesn't
+     * depend on the number of products.
+     */
+    public static final class StatsEntry {
+
+        /** The content URI of the statistics of the whole inventory, a single row */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI, PATH_STATS);
+
+        /** The content URI of the statistics per supplier, one row per supplier with products */
+        public static final Uri CONTENT_SUPPLIERS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_SUPPLIERS_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /** Database table with the statistics of the whole inventory */
+        public final static String TABLE_NAME = "inventory_stats";
+
+        /** Database table with the statistics per supplier */
+        public final static String SUPPLIER_TABLE_NAME = "supplier_stats";
+
+        /** Number of products */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        /** Sum of the product quantities */
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+
+        /** Sum of quantity times price over the products */
+        public final static String COLUMN_TOTAL_VALUE = "total_value";
+
+        /** Number of products with {@link ProductEntry#QUANTITY_LOW} or less in stock */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+
+        /** Number of products with {@link ProductEntry#QUANTITY_CRITICAL} or less in stock */
+        public final static String COLUMN_CRITICAL_STOCK_COUNT = "critical_stock_count";
+
+        /** ID of the supplier, per supplier statistics only */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /** Name of the supplier, per supplier statistics only */
+        public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock alerts database table. An alert is
+     * added by a trigger whenever a product reaches its reorder point, so only the rows that changed
+     * are ever checked. The provider shows a notification for every new alert.
+     */
+    public static final class StockAlertEntry implements BaseColumns {
+
+        /** The content URI to access the stock alerts in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ALERTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of alerts.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALERTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single alert.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALERTS;
+
+        /** Database table for stock alerts */
+        public final static String TABLE_NAME = "stock_alerts";
+
+        /** Unique ID number for the alert */
+        public final static String _ID = BaseColumns._ID;
+
+        /** ID of the product that reached its reorder point */
+        public final static String COLUMN_ALERT_PRODUCT_ID = "product_id";
+
+        /** Name of the product, read only */
+        public final static String COLUMN_ALERT_PRODUCT_NAME = "product_name";
+
+        /** Quantity of the product when the alert was raised */
+        public final static String COLUMN_ALERT_QUANTITY = "quantity";
+
+        /** Reorder point of the product when the alert was raised */
+        public final static String COLUMN_ALERT_REORDER_POINT = "reorder_point";
+
+        /** Time the alert was raised, in milliseconds since the epoch */
+        public final static String COLUMN_ALERT_CREATED_AT = "created_at";
+
+        /** 1 once the alert has been shown as a notification, 0 before */
+        public final static String COLUMN_ALERT_NOTIFIED = "notified";
+    }
+
+    /**
+     * Inner class that defines constant values for the supplier orders database table. Orders are
+     * created by {@link ProductContract#METHOD_GENERATE_ORDERS}, one per supplier.
+     */
+    public static final class OrderEntry implements BaseColumns {
+
+        /** The content URI to access the orders in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of orders.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single order.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ORDERS;
+
+        /** Database table for orders */
+        public final static String TABLE_NAME = "orders";
+
+        /** Unique ID number for the order */
+        public final static String _ID = BaseColumns._ID;
+
+        /** ID of the supplier the order is for */
+        public final static String COLUMN_ORDER_SUPPLIER_ID = "supplier_id";
+
+        /** Name of the supplier, read only */
+        public final static String COLUMN_ORDER_SUPPLIER_NAME = "supplier_name";
+
+        /** Email of the supplier, read only */
+        public final static String COLUMN_ORDER_SUPPLIER_EMAIL = "supplier_email";
+
+        /** Time the order was created, in milliseconds since the epoch */
+        public final static String COLUMN_ORDER_CREATED_AT = "created_at";
+
+        /** Number of products in the order */
+        public final static String COLUMN_ORDER_ITEM_COUNT = "item_count";
+
+        /** Number of units ordered, over all the products */
+        public final static String COLUMN_ORDER_TOTAL_QUANTITY = "total_quantity";
+
+        /** The order as text, ready to be sent to the supplier */
+        public final static String COLUMN_ORDER_DOCUMENT = "document";
+
+        /** 1 once the order has been sent, 0 before */
+        public final static String COLUMN_ORDER_SENT = "sent";
+
+        /**
+         * Build the URI of the items of the given order.
+         */
+        public static Uri buildItemsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_ITEMS).build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the order items database table.
+     */
+    public static final class OrderItemEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the items of an order.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ITEMS;
+
+        /** Database table for order items */
+        public final static String TABLE_NAME = "order_items";
+
+        /** Unique ID number for the item */
+        public final static String _ID = BaseColumns._ID;
+
+        /** ID of the order the item belongs to */
+        public final static String COLUMN_ITEM_ORDER_ID = "order_id";
+
+        /** ID of the product ordered, null once the product has been deleted */
+        public final static String COLUMN_ITEM_PRODUCT_ID = "product_id";
+
+        /** Name of the product when it was ordered */
+        public final static String COLUMN_ITEM_PRODUCT_NAME = "product_name";
+
+        /** Quantity ordered */
+        public final static String COLUMN_ITEM_QUANTITY = "quantity";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements ledger. Every change of a
+     * product quantity, including the initial stock of a new product, is appended by a trigger in
+     * the same transaction as the change. Rows are never updated, only dropped by
+     * {@link ProductContract#METHOD_COMPACT_LEDGER} once they're old.
+     */
+    public static final class MovementEntry implements BaseColumns {
+
+        /** The content URI to access the stock movements in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_MOVEMENTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of movements.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_MOVEMENTS;
+
+        /** Database table for stock movements */
+        public final static String TABLE_NAME = "stock_movements";
+
+        /** Days the movements are kept for */
+        public static final int RETENTION_DAYS = 30;
+
+        /** Unique ID number for the movement, increasing with time */
+        public final static String _ID = BaseColumns._ID;
+
+        /** ID of the product. Kept after the product has been deleted. */
+        public final static String COLUMN_MOVEMENT_PRODUCT_ID = "product_id";
+
+        /** Quantity change, negative for sales */
+        public final static String COLUMN_MOVEMENT_DELTA = "delta";
+
+        /** Quantity after the change */
+        public final static String COLUMN_MOVEMENT_QUANTITY = "quantity";
+
+        /** Time of the change, in milliseconds since the epoch */
+        public final static String COLUMN_MOVEMENT_CREATED_AT = "created_at";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movement rollups: per product totals
+     * of the movements in each hour and each day (UTC). They're updated by a trigger as movements
+     * are appended, so sales velocity never has to be computed from the ledger.
+     */
+    public static final class RollupEntry {
+
+        /** The content URI of the hourly rollups */
+        public static final Uri CONTENT_HOURLY_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_ROLLUPS).appendPath(PATH_HOURLY).build();
+
+        /** The content URI of the daily rollups */
+        public static final Uri CONTENT_DAILY_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_ROLLUPS).appendPath(PATH_DAILY).build();
+
+        /**
+         * The MIME type of the rollup URIs.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUPS;
+
+        /** Database table for the hourly rollups */
+        public final static String HOURLY_TABLE_NAME = "stock_rollups_hourly";
+
+        /** Database table for the daily rollups */
+        public final static String DAILY_TABLE_NAME = "stock_rollups_daily";
+
+        /** Days the hourly rollups are kept for */
+        public static final int HOURLY_RETENTION_DAYS = 90;
+
+        /** ID of the product */
+        public final static String COLUMN_ROLLUP_PRODUCT_ID = "product_id";
+
+        /** Start of the hour or day, in milliseconds since the epoch */
+        public final static String COLUMN_ROLLUP_BUCKET_START = "bucket_start";
+
+        /** Units added in the bucket */
+        public final static String COLUMN_ROLLUP_UNITS_IN = "units_in";
+
+        /** Units removed (sold) in the bucket */
+        public final static String COLUMN_ROLLUP_UNITS_OUT = "units_out";
+
+        /** Number of movements in the bucket */
+        public final static String COLUMN_ROLLUP_MOVEMENT_COUNT = "movement_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the tokens of the applied adjustments, see
+     * {@link ProductContract#KEY_TOKEN}. The table is internal to the provider and has no URI.
+     */
+    public static final class AdjustmentEntry {
+
+        /** Database table for applied adjustment tokens */
+        public final static String TABLE_NAME = "applied_adjustments";
+
+        /** Days the tokens are kept for, well past the time an adjustment may be sent again */
+        public static final int RETENTION_DAYS = 30;
+
+        /** Token of the adjustment, its primary key */
+        public final static String COLUMN_ADJUSTMENT_TOKEN = "token";
+
+        /** Time the adjustment was applied, in milliseconds since the epoch */
+        public final static String COLUMN_ADJUSTMENT_APPLIED_AT = "applied_at";
+    }
+}
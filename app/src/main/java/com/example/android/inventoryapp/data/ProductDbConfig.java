@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+/**
+ * Connection settings applied by {@link ProductDbHelper} every time the database is opened.
+ */
+public final class ProductDbConfig {
+
+    /** PRAGMA synchronous = OFF. Fastest, but a power loss can corrupt the database. */
+    public static final int SYNCHRONOUS_OFF = 0;
+
+    /** PRAGMA synchronous = NORMAL. Safe with WAL; only the last commits can be lost on power loss. */
+    public static final int SYNCHRONOUS_NORMAL = 1;
+
+    /** PRAGMA synchronous = FULL. Every commit is synced to disk. */
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /**
+     * Settings used by the app: WAL so the list can read while a sale is written, NORMAL sync
+     * (durable enough under WAL), a 2 MiB page cache and a 32 MiB memory mapped region.
+     */
+    public static final ProductDbConfig DEFAULT =
+            new ProductDbConfig(true, SYNCHRONOUS_NORMAL, 2 * 1024, 32L * 1024 * 1024);
+
+    /** Whether the database runs in write-ahead logging mode. */
+    public final boolean writeAheadLogging;
+
+    /** One of the SYNCHRONOUS_* constants. */
+    public final int synchronous;
+
+    /** Page cache size in KiB (sent as a negative PRAGMA cache_size). */
+    public final int cacheSizeKb;
+
+    /** Size of the memory mapped I/O region in bytes, 0 to disable it. */
+    public final long mmapSizeBytes;
+
+    /**
+     * Constructs a new {@link ProductDbConfig}.
+     *
+     * @param writeAheadLogging enable write-ahead logging
+     * @param synchronous       one of the SYNCHRONOUS_* constants
+     * @param cacheSizeKb       page cache size in KiB, at least 1
+     * @param mmapSizeBytes     memory mapped I/O size in bytes, 0 to disable it
+     */
+    public ProductDbConfig(boolean writeAheadLogging, int synchronous, int cacheSizeKb, long mmapSizeBytes) {
+        if (synchronous < SYNCHRONOUS_OFF || synchronous > SYNCHRONOUS_FULL) {
+            throw new IllegalArgumentException("Unknown synchronous mode " + synchronous);
+        }
+        if (cacheSizeKb <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive, was " + cacheSizeKb);
+        }
+        if (mmapSizeBytes < 0) {
+            throw new IllegalArgumentException("Mmap size can't be negative, was " + mmapSizeBytes);
+        }
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSizeBytes = mmapSizeBytes;
+    }
+}
@@ -15,11 +15,25 @@
  */
 package com.example.android.inventoryapp.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.inventoryapp.data.ProductContract.AdjustmentEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.OrderEntry;
+import com.example.android.inventoryapp.data.ProductContract.OrderItemEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.RollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockAlertEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
 
 /**
  * Database helper for Pets app. Manages database creation and version management.
@@ -29,20 +43,370 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     public static final String LOG_TAG = ProductDbHelper.class.getSimpleName();
 
     /** Name of the database file */
-    private static final String DATABASE_NAME = "inventory.db";
+    static final String DATABASE_NAME = "inventory.db";
+
+    /** Value of PRAGMA auto_vacuum once the database file supports incremental vacuum */
+    static final long AUTO_VACUUM_INCREMENTAL = 2;
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Aggregates over a set of products, with the names of the statistics columns. Used to fill the
+     * summary tables and to compute the statistics without them.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final String STATS_AGGREGATES = "COUNT(*) AS " + StatsEntry.COLUMN_PRODUCT_COUNT
+            + ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + "), 0) AS " + StatsEntry.COLUMN_TOTAL_QUANTITY
+            + ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " * " + ProductEntry.COLUMN_PRODUCT_PRICE
+            + "), 0) AS " + StatsEntry.COLUMN_TOTAL_VALUE
+            + ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= " + ProductEntry.QUANTITY_LOW
+            + "), 0) AS " + StatsEntry.COLUMN_LOW_STOCK_COUNT
+            + ", IFNULL(SUM(" + ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= " + ProductEntry.QUANTITY_CRITICAL
+            + "), 0) AS " + StatsEntry.COLUMN_CRITICAL_STOCK_COUNT;
+
+    /** Statistics columns of the summary tables */
+    private static final String STATS_COLUMNS = StatsEntry.COLUMN_PRODUCT_COUNT + ", "
+            + StatsEntry.COLUMN_TOTAL_QUANTITY + ", " + StatsEntry.COLUMN_TOTAL_VALUE + ", "
+            + StatsEntry.COLUMN_LOW_STOCK_COUNT + ", " + StatsEntry.COLUMN_CRITICAL_STOCK_COUNT;
+
+    /** Definition of the statistics columns of the summary tables */
+    private static final String STATS_COLUMN_DEFINITIONS = StatsEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + StatsEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+            + StatsEntry.COLUMN_TOTAL_VALUE + " REAL NOT NULL DEFAULT 0, "
+            + StatsEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + StatsEntry.COLUMN_CRITICAL_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0";
 
     /**
-     * Constructs a new instance of {@link ProductDbHelper}.
+     * Upgrade steps, in order. The step at index i takes the database from version i + 1 to
+     * version i + 2. To change the schema, append a new step; never edit a step that has shipped.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // 1 -> 2: indexes for name lookups, supplier filters and low stock checks
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX idx_products_name ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);");
+                    db.execSQL("CREATE INDEX idx_products_supplier_name ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ");");
+                    db.execSQL("CREATE INDEX idx_products_supplier_email ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + ");");
+                    db.execSQL("CREATE INDEX idx_products_quantity ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");");
+                }
+            },
+            // 2 -> 3: full-text index over name and description, kept in sync by triggers
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE " + ProductEntry.FTS_TABLE_NAME + " USING fts4("
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + ");");
+                    db.execSQL("INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + ") SELECT "
+                            + ProductEntry._ID + ", "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + " FROM " + ProductEntry.TABLE_NAME + ";");
+                    createFtsTriggers(db);
+                }
+            },
+            // 3 -> 4: suppliers move to their own table, products keep a reference to them
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL, "
+                            + "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + "));");
+                    db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + ", " + SupplierEntry.COLUMN_SUPPLIER_EMAIL
+                            + ") SELECT DISTINCT " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + " FROM " + ProductEntry.TABLE_NAME + ";");
+
+                    // SQLite can't drop columns, so the products table is rebuilt. Rows keep their
+                    // _id, which is also the docid of their full-text entry.
+                    db.execSQL("CREATE TABLE products_new ("
+                            + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                            + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "), "
+                            + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + " TEXT, "
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL, "
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + " REAL NOT NULL DEFAULT 0.0,"
+                            + ProductEntry.COLUMN_PRODUCT_IMAGE + " TEXT);");
+                    db.execSQL("INSERT INTO products_new ("
+                            + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", " + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + ", "
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                            + ProductEntry.COLUMN_PRODUCT_IMAGE + ") SELECT p." + ProductEntry._ID + ", p."
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", s." + SupplierEntry._ID + ", p."
+                            + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + ", p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", p."
+                            + ProductEntry.COLUMN_PRODUCT_PRICE + ", p." + ProductEntry.COLUMN_PRODUCT_IMAGE
+                            + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME + " s ON s."
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " = p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME
+                            + " AND s." + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " = p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + ";");
+                    // Dropping the table drops its indexes and triggers too
+                    db.execSQL("DROP TABLE " + ProductEntry.TABLE_NAME + ";");
+                    db.execSQL("ALTER TABLE products_new RENAME TO " + ProductEntry.TABLE_NAME + ";");
+
+                    db.execSQL("CREATE INDEX idx_products_name ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);");
+                    db.execSQL("CREATE INDEX idx_products_quantity ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_QUANTITY + ");");
+                    db.execSQL("CREATE INDEX idx_products_supplier ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ");");
+                    createFtsTriggers(db);
+
+                    db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT p." + ProductEntry._ID + ", p."
+                            + ProductEntry.COLUMN_PRODUCT_NAME + ", p." + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + ", p."
+                            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", p." + ProductEntry.COLUMN_PRODUCT_PRICE + ", p."
+                            + ProductEntry.COLUMN_PRODUCT_IMAGE + ", p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", s."
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", s."
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " AS " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL
+                            + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME + " s ON s."
+                            + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";");
+                }
+            },
+            // 4 -> 5: inventory statistics, overall and per supplier, kept up to date by triggers
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + " ("
+                            + "_id INTEGER PRIMARY KEY CHECK (_id = 1), " + STATS_COLUMN_DEFINITIONS + ");");
+                    db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " (_id, " + STATS_COLUMNS + ") SELECT 1, "
+                            + STATS_AGGREGATES + " FROM " + ProductEntry.TABLE_NAME + ";");
+
+                    db.execSQL("CREATE TABLE " + StatsEntry.SUPPLIER_TABLE_NAME + " ("
+                            + StatsEntry.COLUMN_SUPPLIER_ID + " INTEGER PRIMARY KEY REFERENCES "
+                            + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ") ON DELETE CASCADE, "
+                            + STATS_COLUMN_DEFINITIONS + ");");
+                    db.execSQL("INSERT INTO " + StatsEntry.SUPPLIER_TABLE_NAME + " (" + StatsEntry.COLUMN_SUPPLIER_ID
+                            + ", " + STATS_COLUMNS + ") SELECT " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", "
+                            + STATS_AGGREGATES + " FROM " + ProductEntry.TABLE_NAME
+                            + " GROUP BY " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";");
+
+                    createStatsTriggers(db);
+                }
+            },
+            // 5 -> 6: per product reorder points, and alerts raised when a product reaches its own
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + " INTEGER NOT NULL DEFAULT "
+                            + ProductEntry.DEFAULT_REORDER_POINT + ";");
+
+                    // p.* is expanded whenever the view is used, so later columns show up on their own
+                    db.execSQL("DROP VIEW " + ProductEntry.VIEW_NAME + ";");
+                    db.execSQL("CREATE VIEW " + ProductEntry.VIEW_NAME + " AS SELECT p.*, s."
+                            + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", s."
+                            + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " AS " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL
+                            + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME + " s ON s."
+                            + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ";");
+
+                    db.execSQL("CREATE TABLE " + StockAlertEntry.TABLE_NAME + " ("
+                            + StockAlertEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + StockAlertEntry.COLUMN_ALERT_PRODUCT_ID + " INTEGER NOT NULL REFERENCES "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry._ID + ") ON DELETE CASCADE, "
+                            + StockAlertEntry.COLUMN_ALERT_QUANTITY + " INTEGER NOT NULL, "
+                            + StockAlertEntry.COLUMN_ALERT_REORDER_POINT + " INTEGER NOT NULL, "
+                            + StockAlertEntry.COLUMN_ALERT_CREATED_AT + " INTEGER NOT NULL, "
+                            + StockAlertEntry.COLUMN_ALERT_NOTIFIED + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE INDEX idx_stock_alerts_product ON " + StockAlertEntry.TABLE_NAME
+                            + " (" + StockAlertEntry.COLUMN_ALERT_PRODUCT_ID + ");");
+                    db.execSQL("CREATE INDEX idx_stock_alerts_notified ON " + StockAlertEntry.TABLE_NAME
+                            + " (" + StockAlertEntry.COLUMN_ALERT_NOTIFIED + ");");
+
+                    createAlertTriggers(db);
+                }
+            },
+            // 6 -> 7: per product target stock, and supplier orders to reach it
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_TARGET_STOCK + " INTEGER NOT NULL DEFAULT "
+                            + ProductEntry.DEFAULT_TARGET_STOCK + ";");
+                    // MAX(reorder_point) bounds the quantity range of the reorder query
+                    db.execSQL("CREATE INDEX idx_products_reorder_point ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + ");");
+
+                    db.execSQL("CREATE TABLE " + OrderEntry.TABLE_NAME + " ("
+                            + OrderEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + OrderEntry.COLUMN_ORDER_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                            + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ") ON DELETE CASCADE, "
+                            + OrderEntry.COLUMN_ORDER_CREATED_AT + " INTEGER NOT NULL, "
+                            + OrderEntry.COLUMN_ORDER_ITEM_COUNT + " INTEGER NOT NULL, "
+                            + OrderEntry.COLUMN_ORDER_TOTAL_QUANTITY + " INTEGER NOT NULL, "
+                            + OrderEntry.COLUMN_ORDER_DOCUMENT + " TEXT NOT NULL, "
+                            + OrderEntry.COLUMN_ORDER_SENT + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE INDEX idx_orders_supplier ON " + OrderEntry.TABLE_NAME
+                            + " (" + OrderEntry.COLUMN_ORDER_SUPPLIER_ID + ");");
+                    db.execSQL("CREATE INDEX idx_orders_sent ON " + OrderEntry.TABLE_NAME
+                            + " (" + OrderEntry.COLUMN_ORDER_SENT + ");");
+
+                    db.execSQL("CREATE TABLE " + OrderItemEntry.TABLE_NAME + " ("
+                            + OrderItemEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + OrderItemEntry.COLUMN_ITEM_ORDER_ID + " INTEGER NOT NULL REFERENCES "
+                            + OrderEntry.TABLE_NAME + " (" + OrderEntry._ID + ") ON DELETE CASCADE, "
+                            + OrderItemEntry.COLUMN_ITEM_PRODUCT_ID + " INTEGER REFERENCES "
+                            + ProductEntry.TABLE_NAME + " (" + ProductEntry._ID + ") ON DELETE SET NULL, "
+                            + OrderItemEntry.COLUMN_ITEM_PRODUCT_NAME + " TEXT NOT NULL, "
+                            + OrderItemEntry.COLUMN_ITEM_QUANTITY + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX idx_order_items_order ON " + OrderItemEntry.TABLE_NAME
+                            + " (" + OrderItemEntry.COLUMN_ITEM_ORDER_ID + ");");
+                    db.execSQL("CREATE INDEX idx_order_items_product ON " + OrderItemEntry.TABLE_NAME
+                            + " (" + OrderItemEntry.COLUMN_ITEM_PRODUCT_ID + ");");
+                }
+            },
+            // 7 -> 8: append-only ledger of quantity changes, with hourly and daily rollups
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    // No foreign key: the history outlives the product, and ids are never reused
+                    db.execSQL("CREATE TABLE " + MovementEntry.TABLE_NAME + " ("
+                            + MovementEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_MOVEMENT_DELTA + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_MOVEMENT_QUANTITY + " INTEGER NOT NULL, "
+                            + MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX idx_stock_movements_product ON " + MovementEntry.TABLE_NAME
+                            + " (" + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ");");
+
+                    createRollupTable(db, RollupEntry.HOURLY_TABLE_NAME);
+                    createRollupTable(db, RollupEntry.DAILY_TABLE_NAME);
+                    createLedgerTriggers(db);
+                }
+            },
+            // 8 -> 9: indexes for every sort and filter of the product list
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX idx_products_price ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_PRICE + ");");
+                    // Serves the supplier filter and sort, and the supplier foreign key, in place
+                    // of the supplier index
+                    db.execSQL("CREATE INDEX idx_products_supplier_name ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", "
+                            + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);");
+                    db.execSQL("DROP INDEX idx_products_supplier;");
+                }
+            },
+            // 9 -> 10: row version, for optimistic concurrency of the editor
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+                }
+            },
+            // 10 -> 11: SKU of the products, looked up when a barcode is scanned
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                            + ProductEntry.COLUMN_PRODUCT_SKU + " TEXT;");
+                    // Products without a SKU hold NULL, which the unique index allows any number of
+                    db.execSQL("CREATE UNIQUE INDEX idx_products_sku ON " + ProductEntry.TABLE_NAME
+                            + " (" + ProductEntry.COLUMN_PRODUCT_SKU + ");");
+                }
+            },
+            // 11 -> 12: tokens of the applied adjustments, so one sent again isn't applied twice
+            new Migration() {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + AdjustmentEntry.TABLE_NAME + " ("
+                            + AdjustmentEntry.COLUMN_ADJUSTMENT_TOKEN + " TEXT PRIMARY KEY, "
+                            + AdjustmentEntry.COLUMN_ADJUSTMENT_APPLIED_AT + " INTEGER NOT NULL);");
+                    // Compaction drops tokens by age
+                    db.execSQL("CREATE INDEX idx_applied_adjustments_applied_at ON " + AdjustmentEntry.TABLE_NAME
+                            + " (" + AdjustmentEntry.COLUMN_ADJUSTMENT_APPLIED_AT + ");");
+                }
+            },
+    };
+
+    /**
+     * Database version. It is derived from the number of upgrade steps, so adding a step to
+     * {@link #MIGRATIONS} is all it takes to bump it.
+     */
+    static final int DATABASE_VERSION = MIGRATIONS.length + 1;
+
+    /**
+     * A single schema upgrade step.
+     */
+    private interface Migration {
+        void apply(SQLiteDatabase db);
+    }
+
+    /** Connection settings */
+    private final ProductDbConfig mConfig;
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper} with the default connection settings.
      *
      * @param context of the app
      */
     public ProductDbHelper(Context context) {
+        this(context, ProductDbConfig.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link ProductDbHelper}.
+     *
+     * @param context of the app
+     * @param config  connection settings applied whenever the database is opened
+     */
+    public ProductDbHelper(Context context, ProductDbConfig config) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mConfig = config;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(config.writeAheadLogging);
+        }
+    }
+
+    /**
+     * This is called when the connection is being configured, before the schema is created or
+     * upgraded (API 16+).
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        applyPragmas(db);
+    }
+
+    /**
+     * This is called when the database has been opened. Older platforms have no
+     * {@link #onConfigure(SQLiteDatabase)}, so the settings are applied here instead.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            if (mConfig.writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            }
+            applyPragmas(db);
+        }
+        if (!db.isReadOnly()) {
+            enableIncrementalVacuum(db);
+        }
+    }
+
+    /**
+     * Convert a file created before auto_vacuum was set, so its free pages can be given back a few
+     * at a time. The PRAGMA only applies to an existing file through a VACUUM, which rewrites the
+     * whole file: it runs once, on the first open after the upgrade, outside of any transaction.
+     * If it fails, e.g. for lack of space for the copy, it's tried again on the next open.
+     */
+    private static void enableIncrementalVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        try {
+            db.execSQL("VACUUM");
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Failed to enable incremental vacuum", e);
+        }
     }
 
     /**
@@ -63,13 +427,197 @@ public class ProductDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+
+        // The statement above is the version 1 schema. Bring it up to date through the same
+        // upgrade steps existing installs go through, so both paths always end in the same schema.
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * Create the triggers that mirror every change of the products table into its full-text index.
+     * The FTS row shares its docid with the product _id.
+     */
+    private static void createFtsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER products_fts_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + ProductEntry.FTS_TABLE_NAME + " (docid, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + ") "
+                + "VALUES (NEW." + ProductEntry._ID + ", NEW." + ProductEntry.COLUMN_PRODUCT_NAME
+                + ", NEW." + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + "); END;");
+        db.execSQL("CREATE TRIGGER products_fts_update AFTER UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_DESCRIPTION
+                + " ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "UPDATE " + ProductEntry.FTS_TABLE_NAME + " SET "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " = NEW." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_DESCRIPTION + " = NEW." + ProductEntry.COLUMN_PRODUCT_DESCRIPTION
+                + " WHERE docid = NEW." + ProductEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER products_fts_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + ProductEntry.FTS_TABLE_NAME + " WHERE docid = OLD." + ProductEntry._ID + "; END;");
+    }
+
+    /**
+     * Create the triggers that apply every change of the products table to the statistics summary
+     * tables. Each trigger subtracts the old row and adds the new one, so the summaries are updated
+     * in constant time whatever the number of products.
+     */
+    private static void createStatsTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER products_stats_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + addStats("NEW", "+") + " END;");
+        db.execSQL("CREATE TRIGGER products_stats_update AFTER UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + addStats("OLD", "-") + " " + addStats("NEW", "+") + " END;");
+        db.execSQL("CREATE TRIGGER products_stats_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME + " BEGIN "
+                + addStats("OLD", "-") + " END;");
+    }
+
+    /**
+     * Build the trigger statements that add (sign "+") or subtract (sign "-") a product row to the
+     * overall statistics and to those of its supplier.
+     *
+     * @param row  "NEW" or "OLD"
+     * @param sign "+" or "-"
+     */
+    private static String addStats(String row, String sign) {
+        String quantity = row + "." + ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        String set = " SET "
+                + StatsEntry.COLUMN_PRODUCT_COUNT + " = " + StatsEntry.COLUMN_PRODUCT_COUNT + " " + sign + " 1, "
+                + StatsEntry.COLUMN_TOTAL_QUANTITY + " = " + StatsEntry.COLUMN_TOTAL_QUANTITY + " " + sign + " " + quantity + ", "
+                + StatsEntry.COLUMN_TOTAL_VALUE + " = " + StatsEntry.COLUMN_TOTAL_VALUE + " " + sign + " " + quantity
+                + " * " + row + "." + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + StatsEntry.COLUMN_LOW_STOCK_COUNT + " = " + StatsEntry.COLUMN_LOW_STOCK_COUNT + " " + sign
+                + " (" + quantity + " <= " + ProductEntry.QUANTITY_LOW + "), "
+                + StatsEntry.COLUMN_CRITICAL_STOCK_COUNT + " = " + StatsEntry.COLUMN_CRITICAL_STOCK_COUNT + " " + sign
+                + " (" + quantity + " <= " + ProductEntry.QUANTITY_CRITICAL + ")";
+        String supplierId = row + "." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID;
+
+        return "UPDATE " + StatsEntry.TABLE_NAME + set + ";"
+                + " INSERT OR IGNORE INTO " + StatsEntry.SUPPLIER_TABLE_NAME + " ("
+                + StatsEntry.COLUMN_SUPPLIER_ID + ") VALUES (" + supplierId + ");"
+                + " UPDATE " + StatsEntry.SUPPLIER_TABLE_NAME + set
+                + " WHERE " + StatsEntry.COLUMN_SUPPLIER_ID + " = " + supplierId + ";";
+    }
+
+    /**
+     * Create the triggers that raise a stock alert when a product reaches its reorder point: when
+     * it's added at or below it, or when its quantity or reorder point change and it goes from
+     * above it to at or below it. They only look at the row being written.
+     */
+    private static void createAlertTriggers(SQLiteDatabase db) {
+        String insertAlert = "INSERT INTO " + StockAlertEntry.TABLE_NAME + " ("
+                + StockAlertEntry.COLUMN_ALERT_PRODUCT_ID + ", " + StockAlertEntry.COLUMN_ALERT_QUANTITY + ", "
+                + StockAlertEntry.COLUMN_ALERT_REORDER_POINT + ", " + StockAlertEntry.COLUMN_ALERT_CREATED_AT
+                + ") VALUES (NEW." + ProductEntry._ID + ", NEW." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + ", NEW." + ProductEntry.COLUMN_PRODUCT_REORDER_POINT
+                + ", CAST(strftime('%s', 'now') AS INTEGER) * 1000);";
+        String newAtOrBelow = "NEW." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " <= NEW." + ProductEntry.COLUMN_PRODUCT_REORDER_POINT;
+
+        db.execSQL("CREATE TRIGGER products_alert_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                + " WHEN " + newAtOrBelow + " BEGIN " + insertAlert + " END;");
+        db.execSQL("CREATE TRIGGER products_alert_update AFTER UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", " + ProductEntry.COLUMN_PRODUCT_REORDER_POINT
+                + " ON " + ProductEntry.TABLE_NAME + " WHEN " + newAtOrBelow
+                + " AND OLD." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " > OLD." + ProductEntry.COLUMN_PRODUCT_REORDER_POINT
+                + " BEGIN " + insertAlert + " END;");
+    }
+
+    /**
+     * Create a stock movement rollup table, keyed by product and bucket.
+     */
+    private static void createRollupTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE " + table + " ("
+                + RollupEntry.COLUMN_ROLLUP_PRODUCT_ID + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_ROLLUP_BUCKET_START + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_ROLLUP_UNITS_IN + " INTEGER NOT NULL DEFAULT 0, "
+                + RollupEntry.COLUMN_ROLLUP_UNITS_OUT + " INTEGER NOT NULL DEFAULT 0, "
+                + RollupEntry.COLUMN_ROLLUP_MOVEMENT_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + RollupEntry.COLUMN_ROLLUP_PRODUCT_ID + ", "
+                + RollupEntry.COLUMN_ROLLUP_BUCKET_START + "));");
+        // Compaction drops buckets by age, for every product
+        db.execSQL("CREATE INDEX idx_" + table + "_bucket ON " + table
+                + " (" + RollupEntry.COLUMN_ROLLUP_BUCKET_START + ");");
+    }
+
+    /**
+     * Create the triggers that append every quantity change to the ledger, and every ledger row to
+     * the rollups. They run in the transaction of the change itself.
+     */
+    private static void createLedgerTriggers(SQLiteDatabase db) {
+        String insertMovement = "INSERT INTO " + MovementEntry.TABLE_NAME + " ("
+                + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", " + MovementEntry.COLUMN_MOVEMENT_DELTA + ", "
+                + MovementEntry.COLUMN_MOVEMENT_QUANTITY + ", " + MovementEntry.COLUMN_MOVEMENT_CREATED_AT
+                + ") VALUES (NEW." + ProductEntry._ID + ", NEW." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " - %s, NEW."
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", CAST(strftime('%%s', 'now') AS INTEGER) * 1000);";
+
+        db.execSQL("CREATE TRIGGER products_ledger_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                + " WHEN NEW." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " != 0 BEGIN "
+                + String.format(insertMovement, "0") + " END;");
+        db.execSQL("CREATE TRIGGER products_ledger_update AFTER UPDATE OF " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " ON " + ProductEntry.TABLE_NAME + " WHEN NEW." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+                + " != OLD." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " BEGIN "
+                + String.format(insertMovement, "OLD." + ProductEntry.COLUMN_PRODUCT_QUANTITY) + " END;");
+
+        db.execSQL("CREATE TRIGGER stock_movements_rollup AFTER INSERT ON " + MovementEntry.TABLE_NAME + " BEGIN "
+                + addToRollup(RollupEntry.HOURLY_TABLE_NAME, 3600000L) + " "
+                + addToRollup(RollupEntry.DAILY_TABLE_NAME, 86400000L) + " END;");
+    }
+
+    /**
+     * Build the trigger statements that add the new ledger row to its bucket of a rollup table.
+     *
+     * @param table        the rollup table
+     * @param bucketMillis length of the buckets
+     */
+    private static String addToRollup(String table, long bucketMillis) {
+        String bucket = "NEW." + MovementEntry.COLUMN_MOVEMENT_CREATED_AT + " / " + bucketMillis + " * " + bucketMillis;
+        String delta = "NEW." + MovementEntry.COLUMN_MOVEMENT_DELTA;
+        return "INSERT OR IGNORE INTO " + table + " (" + RollupEntry.COLUMN_ROLLUP_PRODUCT_ID + ", "
+                + RollupEntry.COLUMN_ROLLUP_BUCKET_START + ") VALUES (NEW."
+                + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID + ", " + bucket + ");"
+                + " UPDATE " + table + " SET "
+                + RollupEntry.COLUMN_ROLLUP_UNITS_IN + " = " + RollupEntry.COLUMN_ROLLUP_UNITS_IN
+                + " + MAX(" + delta + ", 0), "
+                + RollupEntry.COLUMN_ROLLUP_UNITS_OUT + " = " + RollupEntry.COLUMN_ROLLUP_UNITS_OUT
+                + " + MAX(-" + delta + ", 0), "
+                + RollupEntry.COLUMN_ROLLUP_MOVEMENT_COUNT + " = " + RollupEntry.COLUMN_ROLLUP_MOVEMENT_COUNT + " + 1"
+                + " WHERE " + RollupEntry.COLUMN_ROLLUP_PRODUCT_ID + " = NEW." + MovementEntry.COLUMN_MOVEMENT_PRODUCT_ID
+                + " AND " + RollupEntry.COLUMN_ROLLUP_BUCKET_START + " = " + bucket + ";";
+    }
+
+    /**
+     * Apply the connection PRAGMAs from the {@link ProductDbConfig}.
+     */
+    private void applyPragmas(SQLiteDatabase db) {
+        runPragma(db, "PRAGMA foreign_keys = ON");
+        // Only takes effect on a database without tables yet; older files are converted once by
+        // enableIncrementalVacuum()
+        runPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+        runPragma(db, "PRAGMA synchronous = " + mConfig.synchronous);
+        runPragma(db, "PRAGMA cache_size = -" + mConfig.cacheSizeKb);
+        runPragma(db, "PRAGMA mmap_size = " + mConfig.mmapSizeBytes);
+    }
+
+    /**
+     * Run a PRAGMA statement. Some PRAGMAs return a row, which execSQL() refuses, so they all go
+     * through rawQuery() and the result is discarded.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. Every step between the old and the
+     * new version is applied in order, inside the transaction opened by {@link SQLiteOpenHelper}.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - 1].apply(db);
+        }
     }
 }
\ No newline at end of file
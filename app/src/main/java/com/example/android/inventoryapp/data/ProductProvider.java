@@ -16,15 +16,50 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.inventoryapp.BuildConfig;
+import com.example.android.inventoryapp.alert.StockAlertNotifier;
+import com.example.android.inventoryapp.data.ProductContract.AdjustmentEntry;
+import com.example.android.inventoryapp.data.ProductContract.MovementEntry;
+import com.example.android.inventoryapp.data.ProductContract.OrderEntry;
+import com.example.android.inventoryapp.data.ProductContract.OrderItemEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.RollupEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.StockAlertEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ProductProvider extends ContentProvider {
 
@@ -38,6 +73,161 @@ public class ProductProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single product in the table */
     private static final int PRODUCT_ID = 101;
 
+    /** URI matcher code for the content URI to search products */
+    private static final int PRODUCT_SEARCH = 102;
+
+    /** URI matcher code for the content URI to adjust the quantity of a single product */
+    private static final int PRODUCT_ADJUST = 103;
+
+    /** URI matcher code for the content URI to export the catalog */
+    private static final int PRODUCT_EXPORT = 104;
+
+    /** URI matcher code for the content URI of the inventory statistics */
+    private static final int PRODUCT_STATS = 105;
+
+    /** URI matcher code for the content URI of the statistics per supplier */
+    private static final int PRODUCT_STATS_SUPPLIERS = 106;
+
+    /** URI matcher code for the content URI to look a product up by SKU */
+    private static final int PRODUCT_SKU = 107;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 200;
+
+    /** URI matcher code for the content URI for a single supplier in the table */
+    private static final int SUPPLIER_ID = 201;
+
+    /** URI matcher code for the content URI for the products of a single supplier */
+    private static final int SUPPLIER_PRODUCTS = 202;
+
+    /** URI matcher code for the content URI for the stock alerts table */
+    private static final int ALERTS = 300;
+
+    /** URI matcher code for the content URI for a single stock alert */
+    private static final int ALERT_ID = 301;
+
+    /** URI matcher code for the content URI for the orders table */
+    private static final int ORDERS = 400;
+
+    /** URI matcher code for the content URI for a single order */
+    private static final int ORDER_ID = 401;
+
+    /** URI matcher code for the content URI for the items of a single order */
+    private static final int ORDER_ITEMS = 402;
+
+    /** URI matcher code for the content URI for the stock movements ledger */
+    private static final int MOVEMENTS = 500;
+
+    /** URI matcher code for the content URI for the hourly stock movement rollups */
+    private static final int ROLLUPS_HOURLY = 501;
+
+    /** URI matcher code for the content URI for the daily stock movement rollups */
+    private static final int ROLLUPS_DAILY = 502;
+
+    /** Rows dropped per statement by the ledger compaction, so writers never wait long for it */
+    private static final int COMPACT_CHUNK_SIZE = 500;
+
+    /** Pages freed per step of {@link #reclaimSpace()} */
+    private static final int VACUUM_CHUNK_PAGES = 256;
+
+    /** Milliseconds in a day */
+    private static final long DAY_MILLIS = 86400000L;
+
+    /** Orders, with the name and email of their supplier */
+    private static final String ORDERS_WITH_SUPPLIERS = "(SELECT o.*, s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " AS " + OrderEntry.COLUMN_ORDER_SUPPLIER_NAME + ", s." + SupplierEntry.COLUMN_SUPPLIER_EMAIL
+            + " AS " + OrderEntry.COLUMN_ORDER_SUPPLIER_EMAIL + " FROM " + OrderEntry.TABLE_NAME + " o JOIN "
+            + SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry._ID + " = o." + OrderEntry.COLUMN_ORDER_SUPPLIER_ID + ")";
+
+    /** Stock alerts, with the name of their product */
+    private static final String ALERTS_WITH_NAMES = "(SELECT a.*, p." + ProductEntry.COLUMN_PRODUCT_NAME
+            + " AS " + StockAlertEntry.COLUMN_ALERT_PRODUCT_NAME + " FROM " + StockAlertEntry.TABLE_NAME
+            + " a JOIN " + ProductEntry.TABLE_NAME + " p ON p." + ProductEntry._ID + " = a."
+            + StockAlertEntry.COLUMN_ALERT_PRODUCT_ID + ")";
+
+    /** Whether any stock alert hasn't been shown yet, read from idx_stock_alerts_notified */
+    static final String SQL_HAS_PENDING_ALERTS = "SELECT EXISTS (SELECT 1 FROM " + StockAlertEntry.TABLE_NAME
+            + " WHERE " + StockAlertEntry.COLUMN_ALERT_NOTIFIED + " = 0)";
+
+    /** Stock alerts that haven't been shown yet, oldest first */
+    private static final String SQL_PENDING_ALERTS = "SELECT " + StockAlertEntry._ID + ", "
+            + StockAlertEntry.COLUMN_ALERT_PRODUCT_ID + ", " + StockAlertEntry.COLUMN_ALERT_PRODUCT_NAME + ", "
+            + StockAlertEntry.COLUMN_ALERT_QUANTITY + ", " + StockAlertEntry.COLUMN_ALERT_REORDER_POINT
+            + " FROM " + ALERTS_WITH_NAMES + " WHERE " + StockAlertEntry.COLUMN_ALERT_NOTIFIED + " = 0"
+            + " ORDER BY " + StockAlertEntry._ID;
+
+    /** Statistics per supplier, read from the summary table */
+    private static final String STATS_SUPPLIERS_SUMMARY = "(SELECT st.*, s." + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " AS " + StatsEntry.COLUMN_SUPPLIER_NAME + " FROM " + StatsEntry.SUPPLIER_TABLE_NAME + " st JOIN "
+            + SupplierEntry.TABLE_NAME + " s ON s." + SupplierEntry._ID + " = st." + StatsEntry.COLUMN_SUPPLIER_ID
+            + " WHERE st." + StatsEntry.COLUMN_PRODUCT_COUNT + " > 0)";
+
+    /** Statistics of the whole inventory, computed from the products table */
+    private static final String STATS_SCAN = "(SELECT " + ProductDbHelper.STATS_AGGREGATES
+            + " FROM " + ProductEntry.TABLE_NAME + ")";
+
+    /** Statistics per supplier, computed from the products table */
+    private static final String STATS_SUPPLIERS_SCAN = "(SELECT " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID
+            + " AS " + StatsEntry.COLUMN_SUPPLIER_ID + ", MIN(" + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME
+            + ") AS " + StatsEntry.COLUMN_SUPPLIER_NAME + ", " + ProductDbHelper.STATS_AGGREGATES
+            + " FROM " + ProductEntry.VIEW_NAME + " GROUP BY " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ")";
+
+    /** Default order of the statistics per supplier */
+    private static final String STATS_SUPPLIERS_ORDER = StatsEntry.COLUMN_TOTAL_VALUE + " DESC";
+
+    /** Query for the supplier with a given name and email */
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID + " FROM " + SupplierEntry.TABLE_NAME
+            + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ? AND " + SupplierEntry.COLUMN_SUPPLIER_EMAIL + " = ?";
+
+    /** Increment of the row version, part of every product update */
+    private static final String SQL_BUMP_VERSION = ProductEntry.COLUMN_PRODUCT_VERSION + " = "
+            + ProductEntry.COLUMN_PRODUCT_VERSION + " + 1";
+
+    /**
+     * Statement that adds a delta to the quantity, refusing to take it out of the range the editor
+     * accepts. A quantity stored above the maximum can still go down.
+     */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ?, "
+            + SQL_BUMP_VERSION
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= "
+            + ProductValidator.MIN_QUANTITY + " AND (? <= 0 OR " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? <= "
+            + ProductValidator.MAX_QUANTITY + ")";
+
+    /** Number of search results returned when the URI doesn't ask for a limit */
+    private static final String DEFAULT_SEARCH_LIMIT = "50";
+
+    /** Name as sorted in the product lists */
+    private static final String NAME_KEY = ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE";
+
+    /** Order of the products by name, the default order of the product lists */
+    private static final String PAGE_ORDER_ASC = NAME_KEY + " ASC, " + ProductEntry._ID + " ASC";
+
+    /**
+     * Columns each sort orders the products by, before the _id that breaks ties. Each one is the
+     * prefix of an index: idx_products_name, idx_products_quantity, idx_products_price and
+     * idx_products_supplier_name. The supplier sort groups by supplier id rather than supplier
+     * name: the name lives in the suppliers table, and ordering by it would sort every product in a
+     * temporary b-tree instead of reading a range of the index.
+     */
+    private static final Map<String, String[]> SORT_KEYS = new HashMap<>();
+
+    static {
+        SORT_KEYS.put(ProductContract.SORT_NAME, new String[] { NAME_KEY });
+        SORT_KEYS.put(ProductContract.SORT_QUANTITY, new String[] { ProductEntry.COLUMN_PRODUCT_QUANTITY });
+        SORT_KEYS.put(ProductContract.SORT_PRICE, new String[] { ProductEntry.COLUMN_PRODUCT_PRICE });
+        SORT_KEYS.put(ProductContract.SORT_SUPPLIER,
+                new String[] { ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID, NAME_KEY });
+    }
+
+    /**
+     * Products at or below their reorder point. The bound on MAX(reorder_point), read from
+     * idx_products_reorder_point, turns it into a range of idx_products_quantity.
+     */
+    private static final String LOW_STOCK_SELECTION = ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= "
+            + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + " AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " <= (SELECT MAX(" + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + ") FROM " + ProductEntry.TABLE_NAME + ")";
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -56,17 +246,101 @@ public class ProductProvider extends ContentProvider {
         // integer code {@link #PRODUCT_ID}. This URI is used to provide access to ONE single row
         // of the products table.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+
+        // The content URI of the form "content://com.example.android.products/products/search/*" will
+        // map to the integer code {@link #PRODUCT_SEARCH}. This URI is used to run a full-text search
+        // over the products table.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*", PRODUCT_SEARCH);
+
+        // The content URI of the form "content://com.example.android.products/products/#/adjust" will
+        // map to the integer code {@link #PRODUCT_ADJUST}. This URI is used to atomically change the
+        // quantity of ONE single row of the products table.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_ADJUST, PRODUCT_ADJUST);
+
+        // The content URI of the form "content://com.example.android.products/products/export/*" will
+        // map to the integer code {@link #PRODUCT_EXPORT}. This URI is opened as a file to stream the
+        // whole products table as CSV or JSON.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_EXPORT + "/*", PRODUCT_EXPORT);
+
+        // The content URIs of the form "content://com.example.android.products/products/stats" and
+        // "content://com.example.android.products/products/stats/suppliers" map to the integer codes
+        // {@link #PRODUCT_STATS} and {@link #PRODUCT_STATS_SUPPLIERS}. They give the inventory
+        // statistics, overall and per supplier.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_STATS, PRODUCT_STATS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/"
+                + ProductContract.PATH_STATS + "/" + ProductContract.PATH_SUPPLIERS, PRODUCT_STATS_SUPPLIERS);
+
+        // The content URI of the form "content://com.example.android.products/products/sku/*" will
+        // map to the integer code {@link #PRODUCT_SKU}. This URI is used to find ONE single row of
+        // the products table by its SKU, through the unique SKU index.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SKU + "/*", PRODUCT_SKU);
+
+        // The content URIs of the form "content://com.example.android.products/alerts" and
+        // "content://com.example.android.products/alerts/#" give access to MULTIPLE or ONE single
+        // row of the stock alerts table.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_ALERTS, ALERTS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_ALERTS + "/#", ALERT_ID);
+
+        // The content URIs of the form "content://com.example.android.products/orders" and
+        // "content://com.example.android.products/orders/#" give access to MULTIPLE or ONE single
+        // row of the orders table, and "content://com.example.android.products/orders/#/items" to
+        // the items of ONE single order.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_ORDERS, ORDERS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_ORDERS + "/#", ORDER_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_ORDERS + "/#/" + ProductContract.PATH_ITEMS, ORDER_ITEMS);
+
+        // The content URI of the form "content://com.example.android.products/movements" gives access
+        // to the stock movements ledger, and "content://com.example.android.products/rollups/hourly"
+        // and ".../rollups/daily" to its totals per product and bucket.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_MOVEMENTS, MOVEMENTS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_ROLLUPS + "/" + ProductContract.PATH_HOURLY, ROLLUPS_HOURLY);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_ROLLUPS + "/" + ProductContract.PATH_DAILY, ROLLUPS_DAILY);
+
+        // The content URIs of the form "content://com.example.android.products/suppliers" and
+        // "content://com.example.android.products/suppliers/#" give access to MULTIPLE or ONE single
+        // row of the suppliers table, and "content://com.example.android.products/suppliers/#/products"
+        // to the products of ONE single supplier.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS, SUPPLIERS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_SUPPLIERS + "/#/" + ProductContract.PATH_PRODUCTS, SUPPLIER_PRODUCTS);
     }
 
     /** Database helper object */
     private ProductDbHelper mDbHelper;
 
+    /** Shows the stock alerts raised by the writes */
+    private StockAlertNotifier mStockAlertNotifier;
+
+    /**
+     * URIs waiting to be notified once the batch running on the current thread has committed.
+     * Null when the current thread isn't inside {@link #applyBatch(ArrayList)}.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
         mDbHelper = new ProductDbHelper(getContext());
+        mStockAlertNotifier = new StockAlertNotifier(getContext());
         return true;
     }
 
+    /**
+     * Close the database. The platform never calls this, only tests that create the provider.
+     */
+    @Override
+    public void shutdown() {
+        mDbHelper.close();
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         // Get readable database
@@ -75,35 +349,399 @@ public class ProductProvider extends ContentProvider {
         // This cursor will hold the result of the query
         Cursor cursor;
 
+        // URI the cursor watches for changes
+        Uri notificationUri = uri;
+
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,null, null, sortOrder);
+                cursor = queryProducts(database, uri, projection, selection, selectionArgs, sortOrder);
                 break;
             case PRODUCT_ID:
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,null, null, sortOrder);
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs,null, null, sortOrder);
+                break;
+            case PRODUCT_SKU:
+                selection = ProductEntry.COLUMN_PRODUCT_SKU + "=?";
+                selectionArgs = new String[] { uri.getLastPathSegment() };
+                cursor = database.query(ProductEntry.VIEW_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                // Any product can take or give up the SKU
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_SEARCH:
+                cursor = searchProducts(database, uri, projection, selection, selectionArgs, sortOrder);
+                // Any change to any product can change the search results
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_EXPORT:
+                // Only the name of the export, for apps the stream is shared with
+                return queryExportName(uri, projection);
+            case PRODUCT_STATS:
+                cursor = database.query(isScan(uri) ? STATS_SCAN : StatsEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, null, sortOrder);
+                // The statistics change with any product
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case PRODUCT_STATS_SUPPLIERS:
+                cursor = database.query(isScan(uri) ? STATS_SUPPLIERS_SCAN : STATS_SUPPLIERS_SUMMARY, projection,
+                        selection, selectionArgs, null, null,
+                        sortOrder == null ? STATS_SUPPLIERS_ORDER : sortOrder, getLimit(uri));
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case ALERTS:
+                cursor = database.query(ALERTS_WITH_NAMES, projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? StockAlertEntry._ID + " DESC" : sortOrder, getLimit(uri));
+                break;
+            case ALERT_ID:
+                selection = StockAlertEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(ALERTS_WITH_NAMES, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case ORDERS:
+                cursor = database.query(ORDERS_WITH_SUPPLIERS, projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? OrderEntry._ID + " DESC" : sortOrder, getLimit(uri));
+                break;
+            case ORDER_ID:
+                selection = OrderEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(ORDERS_WITH_SUPPLIERS, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case ORDER_ITEMS:
+                selection = OrderItemEntry.COLUMN_ITEM_ORDER_ID + "=?";
+                selectionArgs = new String[] { uri.getPathSegments().get(1) };
+                cursor = database.query(OrderItemEntry.TABLE_NAME, projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? OrderItemEntry._ID : sortOrder);
+                // Items are written along with their order
+                notificationUri = OrderEntry.CONTENT_URI;
+                break;
+            case MOVEMENTS:
+                cursor = database.query(MovementEntry.TABLE_NAME, projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? MovementEntry._ID + " DESC" : sortOrder, getLimit(uri));
+                // Movements are appended by the product writes
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case ROLLUPS_HOURLY:
+            case ROLLUPS_DAILY:
+                cursor = database.query(match == ROLLUPS_HOURLY ? RollupEntry.HOURLY_TABLE_NAME : RollupEntry.DAILY_TABLE_NAME,
+                        projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? RollupEntry.COLUMN_ROLLUP_BUCKET_START + " DESC" : sortOrder, getLimit(uri));
+                notificationUri = ProductEntry.CONTENT_URI;
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case SUPPLIER_PRODUCTS:
+                cursor = querySupplierProducts(database, uri, projection, selection, selectionArgs, sortOrder);
+                // Products change through the products URIs
+                notificationUri = ProductEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
+    /**
+     * Query the products table, honouring the limit and keyset pagination parameters of the URI.
+     */
+    private Cursor queryProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        List<String> args = new ArrayList<>();
+        String sql = buildProductsQuery(uri, projection, selection, selectionArgs, sortOrder, args);
+        return database.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Build the SQL of a products query, see {@link #queryProducts}. The arguments of the query
+     * are added to args.
+     */
+    static String buildProductsQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                     String sortOrder, List<String> args) {
+        String limit = getLimit(uri);
+        String sort = uri.getQueryParameter(ProductContract.PARAM_SORT);
+        String[] sortKey = SORT_KEYS.get(sort == null ? ProductContract.SORT_NAME : sort);
+        if (sortKey == null) {
+            throw new IllegalArgumentException("Unknown sort in " + uri);
+        }
+
+        StringBuilder where = new StringBuilder();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        appendFilters(uri, where, args);
+
+        boolean after = hasPageKey(uri, ProductContract.PARAM_AFTER_NAME, ProductContract.PARAM_AFTER_VALUE,
+                ProductContract.PARAM_AFTER_ID);
+        boolean before = hasPageKey(uri, ProductContract.PARAM_BEFORE_NAME, ProductContract.PARAM_BEFORE_VALUE,
+                ProductContract.PARAM_BEFORE_ID);
+
+        // Not paged: a plain query, sorted like the pages when a limit or a sort is given
+        if (!after && !before) {
+            if (sortOrder == null && (limit != null || sort != null)) {
+                sortOrder = buildSortOrder(sortKey, " ASC");
+            }
+            return SQLiteQueryBuilder.buildQueryString(false, ProductEntry.VIEW_NAME, projection,
+                    where.length() == 0 ? null : where.toString(), null, null, sortOrder, limit);
+        }
+
+        if (after && before) {
+            throw new IllegalArgumentException("A page can't start after and end before a row " + uri);
+        }
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Pages are sorted by the sort parameter " + uri);
+        }
+
+        // Read the key: a value or a name for each sort column, then the id
+        String[] key = new String[sortKey.length + 1];
+        for (int i = 0; i < sortKey.length; i++) {
+            String param = NAME_KEY.equals(sortKey[i])
+                    ? (after ? ProductContract.PARAM_AFTER_NAME : ProductContract.PARAM_BEFORE_NAME)
+                    : (after ? ProductContract.PARAM_AFTER_VALUE : ProductContract.PARAM_BEFORE_VALUE);
+            key[i] = uri.getQueryParameter(param);
+            if (key[i] == null) {
+                throw new IllegalArgumentException("A page key needs " + param + " " + uri);
+            }
+        }
+        key[sortKey.length] = uri.getQueryParameter(after ? ProductContract.PARAM_AFTER_ID : ProductContract.PARAM_BEFORE_ID);
+        if (key[sortKey.length] == null) {
+            throw new IllegalArgumentException("A page key needs an id " + uri);
+        }
+        try {
+            key[sortKey.length] = String.valueOf(Long.parseLong(key[sortKey.length]));
+            for (int i = 0; i < sortKey.length; i++) {
+                if (ProductEntry.COLUMN_PRODUCT_PRICE.equals(sortKey[i])) {
+                    key[i] = String.valueOf(Double.parseDouble(key[i]));
+                } else if (!NAME_KEY.equals(sortKey[i])) {
+                    key[i] = String.valueOf(Long.parseLong(key[i]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page key in " + uri);
+        }
+
+        // (key..., _id) > (values..., id), or < for the rows before the key. The leading >= (or <=)
+        // lets SQLite seek the index to the key instead of filtering from the start of it.
+        String operator = after ? " > ?" : " < ?";
+        if (where.length() > 0) {
+            where.append(" AND ");
+        }
+        where.append(sortKey[0]).append(after ? " >= ?" : " <= ?").append(" AND (");
+        args.add(key[0]);
+        appendKeyset(where, args, sortKey, key, 0, operator);
+        where.append(')');
+
+        return SQLiteQueryBuilder.buildQueryString(false, ProductEntry.VIEW_NAME, projection, where.toString(),
+                null, null, buildSortOrder(sortKey, after ? " ASC" : " DESC"), limit);
+    }
+
+    /**
+     * Append the selection of the filters in the query parameters of the URI.
+     */
+    private static void appendFilters(Uri uri, StringBuilder where, List<String> args) {
+        if (Boolean.parseBoolean(uri.getQueryParameter(ProductContract.PARAM_LOW_STOCK))) {
+            appendCondition(where, LOW_STOCK_SELECTION);
+        }
+        try {
+            String supplierId = uri.getQueryParameter(ProductContract.PARAM_SUPPLIER_ID);
+            if (supplierId != null) {
+                appendCondition(where, ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = ?");
+                args.add(String.valueOf(Long.parseLong(supplierId)));
+            }
+            String minPrice = uri.getQueryParameter(ProductContract.PARAM_MIN_PRICE);
+            if (minPrice != null) {
+                appendCondition(where, ProductEntry.COLUMN_PRODUCT_PRICE + " >= ?");
+                args.add(String.valueOf(Double.parseDouble(minPrice)));
+            }
+            String maxPrice = uri.getQueryParameter(ProductContract.PARAM_MAX_PRICE);
+            if (maxPrice != null) {
+                appendCondition(where, ProductEntry.COLUMN_PRODUCT_PRICE + " <= ?");
+                args.add(String.valueOf(Double.parseDouble(maxPrice)));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid filter in " + uri);
+        }
+    }
+
+    private static void appendCondition(StringBuilder where, String condition) {
+        if (where.length() > 0) {
+            where.append(" AND ");
+        }
+        where.append(condition);
+    }
+
+    /**
+     * Whether the URI holds any part of a page key.
+     */
+    private static boolean hasPageKey(Uri uri, String nameParam, String valueParam, String idParam) {
+        return uri.getQueryParameter(nameParam) != null || uri.getQueryParameter(valueParam) != null
+                || uri.getQueryParameter(idParam) != null;
+    }
+
+    /**
+     * Append the comparison of the sort key from the given column onwards, then the id, with the
+     * page key: column > ? OR (column = ? AND (...)).
+     */
+    private static void appendKeyset(StringBuilder where, List<String> args, String[] sortKey, String[] key,
+                                     int column, String operator) {
+        if (column == sortKey.length) {
+            where.append(ProductEntry._ID).append(operator);
+            args.add(key[column]);
+            return;
+        }
+        where.append(sortKey[column]).append(operator).append(" OR (").append(sortKey[column]).append(" = ? AND (");
+        args.add(key[column]);
+        args.add(key[column]);
+        appendKeyset(where, args, sortKey, key, column + 1, operator);
+        where.append("))");
+    }
+
+    /**
+     * Order by the sort key and then the id, all in the given direction.
+     */
+    private static String buildSortOrder(String[] sortKey, String direction) {
+        StringBuilder order = new StringBuilder();
+        for (String column : sortKey) {
+            order.append(column).append(direction).append(", ");
+        }
+        return order.append(ProductEntry._ID).append(direction).toString();
+    }
+
+    /**
+     * Query the products of the supplier whose id is in the URI, sorted like the product pages
+     * unless told otherwise.
+     */
+    private Cursor querySupplierProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                         String selection, String[] selectionArgs, String sortOrder) {
+        String supplierId = uri.getPathSegments().get(1);
+        String supplierSelection = ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = ?";
+
+        String[] args;
+        if (TextUtils.isEmpty(selection)) {
+            selection = supplierSelection;
+            args = new String[] { supplierId };
+        } else {
+            selection = supplierSelection + " AND (" + selection + ")";
+            int count = selectionArgs == null ? 0 : selectionArgs.length;
+            args = new String[count + 1];
+            args[0] = supplierId;
+            if (count > 0) {
+                System.arraycopy(selectionArgs, 0, args, 1, count);
+            }
+        }
+
+        return database.query(ProductEntry.VIEW_NAME, projection, selection, args, null, null,
+                sortOrder == null ? PAGE_ORDER_ASC : sortOrder, getLimit(uri));
+    }
+
+    /**
+     * Search products through the full-text index. Each word of the search text (the last path
+     * segment of the URI) is prefix matched, and rows are ranked by how many hits they have.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, Uri uri, String[] projection,
+                                  String selection, String[] selectionArgs, String sortOrder) {
+        String match = MatchExpression.build(uri.getLastPathSegment());
+        if (match == null) {
+            // Nothing searchable in the text, so nothing matches
+            return database.query(ProductEntry.VIEW_NAME, projection, "0", null, null, null, null);
+        }
+
+        // The FTS hits are joined back to the products table. offsets() is a list of integers,
+        // four per hit, so counting its spaces gives the number of hits as the relevance score.
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(ProductEntry.VIEW_NAME + " JOIN (SELECT docid, (length(o) - length(replace(o, ' ', ''))"
+                + " + 1) / 4 AS rank FROM (SELECT docid, offsets(" + ProductEntry.FTS_TABLE_NAME + ") AS o FROM "
+                + ProductEntry.FTS_TABLE_NAME + " WHERE " + ProductEntry.FTS_TABLE_NAME + " MATCH ?)) AS hits ON "
+                + ProductEntry.VIEW_NAME + "." + ProductEntry._ID + " = hits.docid");
+
+        // The MATCH argument comes first, since the FROM clause precedes the WHERE clause
+        List<String> args = new ArrayList<>();
+        args.add(match);
+        StringBuilder where = new StringBuilder();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        // The list filters narrow the hits too, which keep their relevance order
+        appendFilters(uri, where, args);
+
+        if (sortOrder == null) {
+            sortOrder = "hits.rank DESC, " + ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE";
+        }
+
+        String limit = getLimit(uri);
+        return builder.query(database, projection, where.length() == 0 ? null : where.toString(),
+                args.toArray(new String[args.size()]), null, null, sortOrder,
+                limit == null ? DEFAULT_SEARCH_LIMIT : limit);
+    }
+
+    /**
+     * Describe the export stream with the {@link OpenableColumns} a receiving app can ask for. The
+     * size isn't known until the stream has been written, so it's left null.
+     */
+    private Cursor queryExportName(Uri uri, String[] projection) {
+        if (projection == null) {
+            projection = new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = ProductEntry.TABLE_NAME + "." + getExportFormat(uri);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * Whether the URI asks for the statistics to be computed from the products table.
+     */
+    private static boolean isScan(Uri uri) {
+        return Boolean.parseBoolean(uri.getQueryParameter(ProductContract.PARAM_SCAN));
+    }
+
+    /**
+     * Read the {@link ProductContract#PARAM_LIMIT} query parameter of the URI, null if not set.
+     */
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(ProductContract.PARAM_LIMIT);
+        if (limit == null) {
+            return null;
+        }
+        try {
+            return String.valueOf(Math.max(0, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+    }
+
     //////////////
     /// INSERT ///
     //////////////
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        assertNotMainThread();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
                 return insertProduct(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -114,34 +752,231 @@ public class ProductProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
+        validateProduct(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Insert the new product with the given values, along with its supplier if it's new
+        long id;
+        database.beginTransaction();
+        try {
+            id = database.insert(ProductEntry.TABLE_NAME, null, resolveSupplier(database, values, null));
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify the new row only, so observers of the list can tell which row to read
+        Uri productUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(productUri);
+        checkStockAlerts();
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return productUri;
+    }
+
+    /**
+     * Check the given content values against the rules a new product must satisfy.
+     */
+    private void validateProduct(ContentValues values) {
         // Check that the name is not null
         String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
         if (name == null) {
             throw new IllegalArgumentException("Product requires a name");
         }
+    }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Replace the supplier name and email of the given product values with the id of the matching
+     * supplier, adding the supplier if there's none. Must run inside a transaction. Values without
+     * supplier columns are returned as they are.
+     *
+     * @param cache supplier ids already resolved in this transaction, keyed by name and email. May
+     *              be null.
+     */
+    private static ContentValues resolveSupplier(SQLiteDatabase database, ContentValues values,
+                                                 Map<String, Long> cache) {
+        boolean hasName = values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        boolean hasEmail = values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+        if (!hasName && !hasEmail) {
+            return values;
+        }
 
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
+        String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        String email = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+        if (name == null || email == null) {
+            throw new IllegalArgumentException("Product requires both a supplier name and a supplier email");
+        }
+
+        String key = name + '\n' + email;
+        Long supplierId = cache == null ? null : cache.get(key);
+        if (supplierId == null) {
+            Cursor cursor = database.rawQuery(SQL_FIND_SUPPLIER, new String[] { name, email });
+            try {
+                supplierId = cursor.moveToFirst() ? cursor.getLong(0) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+        if (supplierId == null) {
+            ContentValues supplier = new ContentValues();
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, name);
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_EMAIL, email);
+            supplierId = database.insertOrThrow(SupplierEntry.TABLE_NAME, null, supplier);
+        }
+        if (cache != null) {
+            cache.put(key, supplierId);
+        }
+
+        ContentValues resolved = new ContentValues(values);
+        resolved.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        resolved.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL);
+        resolved.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID, supplierId);
+        return resolved;
+    }
+
+    /**
+     * Insert a supplier into the database. Return the new content URI, or null if the insertion
+     * failed, e.g. because there's already a supplier with that name and email.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        validateSupplier(values);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long id = database.insert(SupplierEntry.TABLE_NAME, null, values);
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        notifyChange(uri);
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Check the name and email of a supplier, if they are set.
+     */
+    private static void validateSupplier(ContentValues values) {
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_EMAIL)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_EMAIL) == null) {
+            throw new IllegalArgumentException("Supplier requires an email");
+        }
+    }
+
+    ///////////////////
+    /// BULK INSERT ///
+    ///////////////////
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        assertNotMainThread();
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PRODUCTS:
+                return bulkInsertProducts(uri, values);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Insert all the given products in a single transaction. Rows are written through compiled
+     * INSERT statements that are reused for every row with the same set of columns, and a single
+     * change notification is sent once the whole batch has been committed.
+     * Return the number of rows that were successfully inserted.
+     */
+    private int bulkInsertProducts(Uri uri, ContentValues[] values) {
+        // Validate the whole batch up front so a bad row doesn't leave a half open transaction
+        for (ContentValues row : values) {
+            validateProduct(row);
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Compiled statements, keyed by the (sorted) columns they insert
+        Map<String, SQLiteStatement> statements = new HashMap<>();
+        // Supplier ids, so a batch of products from the same supplier looks it up once
+        Map<String, Long> suppliers = new HashMap<>();
+        int rowsInserted = 0;
+
+        database.beginTransaction();
+        try {
+            for (ContentValues product : values) {
+                ContentValues row = resolveSupplier(database, product, suppliers);
+                String[] columns = row.keySet().toArray(new String[row.size()]);
+                Arrays.sort(columns);
+
+                String key = Arrays.toString(columns);
+                SQLiteStatement statement = statements.get(key);
+                if (statement == null) {
+                    statement = database.compileStatement(buildInsertSql(columns));
+                    statements.put(key, statement);
+                }
+
+                statement.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, row.get(columns[i]));
+                }
+
+                // Same behaviour as insert(): log the failed row and carry on with the rest.
+                try {
+                    statement.executeInsert();
+                    rowsInserted++;
+                } catch (SQLException e) {
+                    Log.e(LOG_TAG, "Failed to insert row for " + uri, e);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+            checkStockAlerts();
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Build an INSERT statement for the products table with one placeholder per column.
+     */
+    private static String buildInsertSql(String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(ProductEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                placeholders.append(", ");
+            }
+            sql.append(columns[i]);
+            placeholders.append("?");
+        }
+        return sql.append(") VALUES (").append(placeholders).append(")").toString();
+    }
+
     //////////////
     /// UPDATE ///
     //////////////
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        assertNotMainThread();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
@@ -149,7 +984,32 @@ public class ProductProvider extends ContentProvider {
             case PRODUCT_ID:
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                String expectedVersion = uri.getQueryParameter(ProductContract.PARAM_EXPECTED_VERSION);
+                if (expectedVersion != null) {
+                    selection += " AND " + ProductEntry.COLUMN_PRODUCT_VERSION + "=?";
+                    try {
+                        selectionArgs = new String[] { selectionArgs[0],
+                                String.valueOf(Long.parseLong(expectedVersion)) };
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid expected version in " + uri);
+                    }
+                }
                 return updateProduct(uri, contentValues, selection, selectionArgs);
+            case PRODUCT_ADJUST:
+                Integer delta = contentValues.getAsInteger(ProductContract.KEY_DELTA);
+                if (delta == null) {
+                    throw new IllegalArgumentException("Adjustment requires a delta");
+                }
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                return adjustQuantity(id, delta, contentValues.getAsString(ProductContract.KEY_TOKEN)) == -1 ? 0 : 1;
+            case ORDER_ID:
+                return updateOrder(uri, contentValues);
+            case SUPPLIERS:
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = SupplierEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateSupplier(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -158,6 +1018,7 @@ public class ProductProvider extends ContentProvider {
     /**
      * Update products in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more products).
+     * The version of every updated row is incremented.
      * Return the number of rows that were successfully updated.
      */
     private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
@@ -170,6 +1031,10 @@ public class ProductProvider extends ContentProvider {
             }
         }
 
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_VERSION)) {
+            throw new IllegalArgumentException("The version of a product is maintained by the provider");
+        }
+
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
@@ -179,19 +1044,394 @@ public class ProductProvider extends ContentProvider {
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Returns the number of database rows affected by the update statement
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            rowsUpdated = updateAndBumpVersion(database, resolveSupplier(database, values, null),
+                    selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
         if (rowsUpdated > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            checkStockAlerts();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Update products and increment their version in the same statement, which
+     * {@link SQLiteDatabase#update} can't express. Must run inside a transaction.
+     * Return the number of rows updated.
+     */
+    private static int updateAndBumpVersion(SQLiteDatabase database, ContentValues values,
+                                            String selection, String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(ProductEntry.TABLE_NAME).append(" SET ");
+        List<Object> bindArgs = new ArrayList<>();
+        for (String column : values.keySet()) {
+            sql.append(column).append(" = ?, ");
+            bindArgs.add(values.get(column));
+        }
+        sql.append(SQL_BUMP_VERSION);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
+        }
+        if (selectionArgs != null) {
+            bindArgs.addAll(Arrays.asList(selectionArgs));
+        }
+
+        SQLiteStatement statement = database.compileStatement(sql.toString());
+        try {
+            for (int i = 0; i < bindArgs.size(); i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs.get(i));
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Update an order. Only its sent flag can change; the rest is written when it's generated.
+     */
+    private int updateOrder(Uri uri, ContentValues values) {
+        if (values.size() != 1 || !values.containsKey(OrderEntry.COLUMN_ORDER_SENT)) {
+            throw new IllegalArgumentException("Only the sent flag of an order can be updated");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(OrderEntry.TABLE_NAME, values, OrderEntry._ID + "=?",
+                new String[] { String.valueOf(ContentUris.parseId(uri)) });
+        if (rowsUpdated > 0) {
+            notifyChange(OrderEntry.CONTENT_URI);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Update suppliers in the database. A single row write changes the supplier of every product
+     * that references it, so those products are written as well: their version is incremented in
+     * the same transaction, and they're notified.
+     * Return the number of rows that were successfully updated, 0 if the change would make two
+     * suppliers identical.
+     */
+    private int updateSupplier(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        validateSupplier(values);
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            // The suppliers are read first, as the change may no longer match the selection
+            String supplierIds = readSupplierIds(database, selection, selectionArgs);
+            try {
+                rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection, selectionArgs);
+            } catch (SQLiteConstraintException e) {
+                // Only the failed statement is rolled back, so a batch around it can go on
+                Log.e(LOG_TAG, "Failed to update " + uri, e);
+                rowsUpdated = 0;
+            }
+            if (rowsUpdated > 0) {
+                database.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET " + SQL_BUMP_VERSION
+                        + " WHERE " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " IN (" + supplierIds + ")");
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (rowsUpdated > 0) {
+            notifyChange(uri);
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Read the ids of the suppliers matching a selection, as a comma separated list.
+     */
+    private static String readSupplierIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Cursor cursor = database.query(SupplierEntry.TABLE_NAME, new String[] { SupplierEntry._ID },
+                selection, selectionArgs, null, null, null);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return TextUtils.join(",", ids);
+    }
+
+    /**
+     * Atomically add the given delta to the quantity of a product. The change is applied by a
+     * single UPDATE, so concurrent adjustments can't overwrite each other, and it's rejected if the
+     * quantity would go below {@link ProductValidator#MIN_QUANTITY} or above
+     * {@link ProductValidator#MAX_QUANTITY}, so it never stores a product the editor can't save.
+     * Like any other write, it increments the row version.
+     * An adjustment with a token is applied once: the token is recorded in the same transaction as
+     * the change, and a later adjustment with the same token only reads the quantity.
+     * Return the new quantity, or -1 if the product doesn't exist or the change was rejected.
+     *
+     * @param token unique token of the adjustment, or null
+     */
+    private long adjustQuantity(long id, int delta, String token) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long newQuantity;
+        database.beginTransaction();
+        try {
+            if (token != null && DatabaseUtils.queryNumEntries(database, AdjustmentEntry.TABLE_NAME,
+                    AdjustmentEntry.COLUMN_ADJUSTMENT_TOKEN + " = ?", new String[] { token }) > 0) {
+                // Applied already, by a write whose outcome never reached the caller
+                newQuantity = readQuantity(database, id);
+                database.setTransactionSuccessful();
+                return newQuantity;
+            }
+
+            SQLiteStatement statement = database.compileStatement(SQL_ADJUST_QUANTITY);
+            try {
+                statement.bindLong(1, delta);
+                statement.bindLong(2, id);
+                statement.bindLong(3, delta);
+                statement.bindLong(4, delta);
+                statement.bindLong(5, delta);
+                if (statement.executeUpdateDelete() == 0) {
+                    // Nothing was written. The transaction still ends successfully, since
+                    // inside applyBatch() a failed nested transaction rolls back the whole batch.
+                    database.setTransactionSuccessful();
+                    return -1;
+                }
+            } finally {
+                statement.close();
+            }
+
+            if (token != null) {
+                ContentValues applied = new ContentValues();
+                applied.put(AdjustmentEntry.COLUMN_ADJUSTMENT_TOKEN, token);
+                applied.put(AdjustmentEntry.COLUMN_ADJUSTMENT_APPLIED_AT, System.currentTimeMillis());
+                database.insertOrThrow(AdjustmentEntry.TABLE_NAME, null, applied);
+            }
+            newQuantity = readQuantity(database, id);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyChange(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id));
+        checkStockAlerts();
+        return newQuantity;
+    }
+
+    /**
+     * Read the quantity of a product, or -1 if it doesn't exist.
+     */
+    private static long readQuantity(SQLiteDatabase database, long id) {
+        Cursor cursor = database.rawQuery("SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " FROM "
+                + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?", new String[] { String.valueOf(id) });
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    ////////////
+    /// FILE ///
+    ////////////
+
+    /**
+     * Open the export URI as a pipe. The catalog is written into the pipe on a background thread
+     * while the caller reads it, chunk by chunk, so neither side ever holds the whole table.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCT_EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports can only be read " + uri);
+        }
+        return openPipeHelper(uri, getType(uri), null, getExportFormat(uri), new PipeDataWriter<String>() {
+            @Override
+            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                        Bundle opts, String format) {
+                FileOutputStream stream = new FileOutputStream(output.getFileDescriptor());
+                try {
+                    new CatalogExporter(mDbHelper.getReadableDatabase()).export(stream, format);
+                } catch (IOException e) {
+                    // Usually the reader going away before the end
+                    Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+                } finally {
+                    try {
+                        stream.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the format of an export URI.
+     */
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getLastPathSegment();
+        if (!ProductContract.EXPORT_CSV.equals(format) && !ProductContract.EXPORT_JSON.equals(format)) {
+            throw new IllegalArgumentException("Unknown export format " + uri);
+        }
+        return format;
+    }
+
+    ////////////
+    /// CALL ///
+    ////////////
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // Every method writes
+        assertNotMainThread();
+        if (ProductContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            if (arg == null || extras == null || !extras.containsKey(ProductContract.KEY_DELTA)) {
+                throw new IllegalArgumentException("Adjustment requires a product id and a delta");
+            }
+            long newQuantity = adjustQuantity(Long.parseLong(arg), extras.getInt(ProductContract.KEY_DELTA),
+                    extras.getString(ProductContract.KEY_TOKEN));
+            if (newQuantity == -1) {
+                return null;
+            }
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.KEY_QUANTITY, (int) newQuantity);
+            return result;
+        }
+        if (ProductContract.METHOD_GENERATE_ORDERS.equals(method)) {
+            int orders = new ReorderGenerator(mDbHelper.getWritableDatabase()).generate(System.currentTimeMillis());
+            if (orders > 0) {
+                notifyChange(OrderEntry.CONTENT_URI);
+            }
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.KEY_ORDER_COUNT, orders);
+            return result;
+        }
+        if (ProductContract.METHOD_COMPACT_LEDGER.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.KEY_DELETED_COUNT, compactLedger(System.currentTimeMillis()));
+            return result;
+        }
+        if (ProductContract.METHOD_RECLAIM_SPACE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.KEY_FREED_PAGES, reclaimSpace());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Give the free pages of the database file back to the file system. They're truncated
+     * {@link #VACUUM_CHUNK_PAGES} at a time, each chunk in its own short write. A file not yet
+     * converted to auto_vacuum=INCREMENTAL by {@link ProductDbHelper} is left as it is: its free
+     * pages are reused by later writes.
+     *
+     * @return the number of pages freed
+     */
+    private int reclaimSpace() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+        if (freePages == 0) {
+            return 0;
+        }
+
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                != ProductDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            // Never a full VACUUM here: it would hold the write lock for as long as it takes to
+            // rewrite the whole file
+            return 0;
+        }
+
+        long left = freePages;
+        while (left > 0) {
+            // Each result row is one freed page, so every row has to be stepped through
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_CHUNK_PAGES + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            long stillFree = DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null);
+            if (stillFree >= left) {
+                break;
+            }
+            left = stillFree;
+        }
+        return (int) (freePages - left);
+    }
+
+    /**
+     * Drop the stock movements, hourly rollups and adjustment tokens past their retention. The deletes run in chunks,
+     * each in its own transaction, so a large backlog doesn't hold the write lock for long. Open
+     * cursors aren't notified: only history nobody is looking at goes away.
+     *
+     * @param now current time, in milliseconds since the epoch
+     * @return the number of rows dropped
+     */
+    private int compactLedger(long now) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Movement ids increase with time, so everything before the first recent movement is old.
+        // Finding it only walks the rows about to be dropped.
+        long movementsCutoff = now - MovementEntry.RETENTION_DAYS * DAY_MILLIS;
+        long firstKept = DatabaseUtils.longForQuery(database, "SELECT IFNULL((SELECT " + MovementEntry._ID
+                + " FROM " + MovementEntry.TABLE_NAME + " WHERE " + MovementEntry.COLUMN_MOVEMENT_CREATED_AT
+                + " >= ? ORDER BY " + MovementEntry._ID + " LIMIT 1), (SELECT IFNULL(MAX(" + MovementEntry._ID
+                + "), 0) + 1 FROM " + MovementEntry.TABLE_NAME + "))",
+                new String[] { String.valueOf(movementsCutoff) });
+        int deleted = deleteInChunks(database, MovementEntry.TABLE_NAME, MovementEntry._ID,
+                MovementEntry._ID + " < " + firstKept);
+
+        long hourlyCutoff = now - RollupEntry.HOURLY_RETENTION_DAYS * DAY_MILLIS;
+        deleted += deleteInChunks(database, RollupEntry.HOURLY_TABLE_NAME, "rowid",
+                RollupEntry.COLUMN_ROLLUP_BUCKET_START + " < " + hourlyCutoff);
+
+        long tokensCutoff = now - AdjustmentEntry.RETENTION_DAYS * DAY_MILLIS;
+        deleted += deleteInChunks(database, AdjustmentEntry.TABLE_NAME, "rowid",
+                AdjustmentEntry.COLUMN_ADJUSTMENT_APPLIED_AT + " < " + tokensCutoff);
+        return deleted;
+    }
+
+    /**
+     * Delete the rows of a table matching a condition, {@link #COMPACT_CHUNK_SIZE} at a time.
+     *
+     * @param key   indexed column the chunks are taken in the order of
+     * @param where condition of the rows to delete, which must be served by an index
+     * @return the number of rows deleted
+     */
+    private static int deleteInChunks(SQLiteDatabase database, String table, String key, String where) {
+        SQLiteStatement delete = database.compileStatement("DELETE FROM " + table + " WHERE " + key
+                + " IN (SELECT " + key + " FROM " + table + " WHERE " + where + " LIMIT " + COMPACT_CHUNK_SIZE + ")");
+        try {
+            int deleted = 0;
+            int chunk;
+            do {
+                chunk = delete.executeUpdateDelete();
+                deleted += chunk;
+            } while (chunk == COMPACT_CHUNK_SIZE);
+            return deleted;
+        } finally {
+            delete.close();
+        }
+    }
+
     //////////////
     /// DELETE ///
     //////////////
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        assertNotMainThread();
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -199,6 +1439,13 @@ public class ProductProvider extends ContentProvider {
         int rowsDeleted = 0;
         switch (match) {
             case PRODUCTS:
+                String limit = getLimit(uri);
+                if (limit != null) {
+                    // One chunk: the first rows that match, so the write lock is held for a bounded time
+                    selection = ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM " + ProductEntry.TABLE_NAME
+                            + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection)
+                            + " ORDER BY " + ProductEntry._ID + " LIMIT " + limit + ")";
+                }
                 // Delete all rows that match the selection and selection args
                 rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
@@ -208,24 +1455,211 @@ public class ProductProvider extends ContentProvider {
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case ALERTS:
+                // Dismiss the alerts that match the selection and selection args
+                rowsDeleted = database.delete(StockAlertEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case ALERT_ID:
+                selection = StockAlertEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = database.delete(StockAlertEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case ORDER_ID:
+                // Delete a single order, along with its items
+                selection = OrderEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = database.delete(OrderEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                // Delete a single supplier, as long as no product references it
+                selection = SupplierEntry._ID + "=? AND NOT EXISTS (SELECT 1 FROM " + ProductEntry.TABLE_NAME
+                        + " WHERE " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = " + SupplierEntry.TABLE_NAME
+                        + "." + SupplierEntry._ID + ")";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
         if (rowsDeleted > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /////////////
+    /// BATCH ///
+    /////////////
+
+    /**
+     * Apply all the operations in a single transaction. Back-references between operations are
+     * resolved by {@link ContentProviderOperation#apply}, so a batch can insert a product and then
+     * update it. Change notifications are held back until the batch commits and then sent once per
+     * distinct URI.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        assertNotMainThread();
+        // Nested batches just join the outer one
+        if (mPendingNotifications.get() != null) {
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> notifications = new LinkedHashSet<>();
+        mPendingNotifications.set(notifications);
+
+        ContentProviderResult[] results;
+        database.beginTransaction();
+        try {
+            results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        for (Uri uri : notifications) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        if (!notifications.isEmpty()) {
+            dispatchStockAlerts();
+        }
+        return results;
+    }
+
+    /**
+     * Refuse, in debug builds, writes made on the UI thread of this process. They block the UI for
+     * as long as the transaction and its triggers take, so they go through the
+     * {@link ProductWriteQueue} instead. Calls from other processes arrive on binder threads.
+     */
+    private static void assertNotMainThread() {
+        if (BuildConfig.DEBUG && Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Provider write on the main thread");
+        }
+    }
+
+    /**
+     * Show the stock alerts raised by a write that has just been committed. Inside a batch this
+     * waits until the batch has been committed.
+     */
+    private void checkStockAlerts() {
+        if (mPendingNotifications.get() == null) {
+            dispatchStockAlerts();
+        }
+    }
+
+    /**
+     * Show the stock alerts that haven't been shown yet and mark them as shown. The triggers only
+     * add alerts for the rows that were written, and the pending ones are found through an index,
+     * so this doesn't depend on the number of products. Most writes raise no alert: they're told
+     * apart by a read, so only a write that raised one takes the write lock again.
+     */
+    private void dispatchStockAlerts() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        if (DatabaseUtils.longForQuery(database, SQL_HAS_PENDING_ALERTS, null) == 0) {
+            return;
+        }
+
+        long[] productIds;
+        String[] names;
+        int[] quantities;
+        int[] reorderPoints;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.rawQuery(SQL_PENDING_ALERTS, null);
+            try {
+                int count = cursor.getCount();
+                if (count == 0) {
+                    return;
+                }
+                productIds = new long[count];
+                names = new String[count];
+                quantities = new int[count];
+                reorderPoints = new int[count];
+                long lastId = 0;
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    lastId = cursor.getLong(0);
+                    productIds[i] = cursor.getLong(1);
+                    names[i] = cursor.getString(2);
+                    quantities[i] = cursor.getInt(3);
+                    reorderPoints[i] = cursor.getInt(4);
+                }
+
+                ContentValues notified = new ContentValues();
+                notified.put(StockAlertEntry.COLUMN_ALERT_NOTIFIED, 1);
+                database.update(StockAlertEntry.TABLE_NAME, notified, StockAlertEntry.COLUMN_ALERT_NOTIFIED
+                        + " = 0 AND " + StockAlertEntry._ID + " <= ?", new String[] { String.valueOf(lastId) });
+            } finally {
+                cursor.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        for (int i = 0; i < productIds.length; i++) {
+            mStockAlertNotifier.notifyLowStock(productIds[i], names[i], quantities[i], reorderPoints[i]);
+        }
+        getContext().getContentResolver().notifyChange(StockAlertEntry.CONTENT_URI, null);
+    }
+
+    /**
+     * Notify observers that the data behind the given URI has changed. Inside a batch the
+     * notification is deferred until the batch has been committed.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
+            case SUPPLIER_PRODUCTS:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
+            case PRODUCT_ADJUST:
+            case PRODUCT_SKU:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_EXPORT:
+                return ProductContract.EXPORT_JSON.equals(getExportFormat(uri))
+                        ? ProductEntry.JSON_TYPE : ProductEntry.CSV_TYPE;
+            case PRODUCT_STATS:
+                return StatsEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_STATS_SUPPLIERS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case ALERTS:
+                return StockAlertEntry.CONTENT_LIST_TYPE;
+            case ALERT_ID:
+                return StockAlertEntry.CONTENT_ITEM_TYPE;
+            case ORDERS:
+                return OrderEntry.CONTENT_LIST_TYPE;
+            case ORDER_ID:
+                return OrderEntry.CONTENT_ITEM_TYPE;
+            case ORDER_ITEMS:
+                return OrderItemEntry.CONTENT_LIST_TYPE;
+            case MOVEMENTS:
+                return MovementEntry.CONTENT_LIST_TYPE;
+            case ROLLUPS_HOURLY:
+            case ROLLUPS_DAILY:
+                return RollupEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Rules a product must satisfy to be saved, shared by the editor and the catalog import.
+ */
+public final class ProductValidator {
+
+    // To prevent someone from accidentally instantiating the validator class,
+    // give it an empty constructor.
+    private ProductValidator() {}
+
+    /** minimum quantity allowed */
+    public static final int MIN_QUANTITY = 0;
+
+    /** maximum quantity allowed */
+    public static final int MAX_QUANTITY = 100;
+
+    /** The product is valid */
+    public static final int VALID = 0;
+    public static final int ERROR_NAME_REQUIRED = 1;
+    public static final int ERROR_DESCRIPTION_REQUIRED = 2;
+    public static final int ERROR_QUANTITY_REQUIRED = 3;
+    public static final int ERROR_QUANTITY_TOO_HIGH = 4;
+    public static final int ERROR_QUANTITY_TOO_LOW = 5;
+    public static final int ERROR_PRICE_REQUIRED = 6;
+    public static final int ERROR_SUPPLIER_NAME_REQUIRED = 7;
+    public static final int ERROR_SUPPLIER_EMAIL_REQUIRED = 8;
+
+    /**
+     * Check a complete product.
+     *
+     * @param values the product columns
+     * @return {@link #VALID} or the first ERROR_* rule that is broken
+     */
+    public static int validate(ContentValues values) {
+        return validate(values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME),
+                values.getAsString(ProductEntry.COLUMN_PRODUCT_DESCRIPTION),
+                values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY),
+                values.getAsFloat(ProductEntry.COLUMN_PRODUCT_PRICE),
+                values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME),
+                values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL));
+    }
+
+    /**
+     * Check a complete product, given as its fields. Null stands for a missing field.
+     *
+     * @return {@link #VALID} or the first ERROR_* rule that is broken
+     */
+    static int validate(String name, String description, Integer quantity, Float price,
+                        String supplierName, String supplierEmail) {
+        if (isEmpty(name)) {
+            return ERROR_NAME_REQUIRED;
+        }
+
+        if (isEmpty(description)) {
+            return ERROR_DESCRIPTION_REQUIRED;
+        }
+
+        if (quantity == null) {
+            return ERROR_QUANTITY_REQUIRED;
+        }
+
+        if (quantity > MAX_QUANTITY) {
+            return ERROR_QUANTITY_TOO_HIGH;
+        }
+
+        if (quantity < MIN_QUANTITY) {
+            return ERROR_QUANTITY_TOO_LOW;
+        }
+
+        if (price == null) {
+            return ERROR_PRICE_REQUIRED;
+        }
+
+        if (isEmpty(supplierName)) {
+            return ERROR_SUPPLIER_NAME_REQUIRED;
+        }
+
+        if (isEmpty(supplierEmail)) {
+            return ERROR_SUPPLIER_EMAIL_REQUIRED;
+        }
+
+        return VALID;
+    }
+
+    /**
+     * Same as TextUtils.isEmpty(), which isn't available to the local unit tests.
+     */
+    private static boolean isEmpty(String text) {
+        return text == null || text.length() == 0;
+    }
+}
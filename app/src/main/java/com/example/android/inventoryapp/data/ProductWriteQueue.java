@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ProductWriteQueue} runs the writes of the UI on a single background thread, in the order
+ * they were enqueued, so writes to the same product can't overtake each other.
+ *
+ * Writes enqueued while the thread is busy are applied together in one
+ * {@link ContentResolver#applyBatch} call, i.e. one transaction. If the batch fails, its writes are
+ * applied one by one, so a bad write only fails itself. Results and errors are reported on the UI
+ * thread.
+ */
+public final class ProductWriteQueue {
+
+    public static final String LOG_TAG = ProductWriteQueue.class.getSimpleName();
+
+    /**
+     * Callback for the outcome of a write. Called on the UI thread.
+     */
+    public interface Callback {
+        /**
+         * The write was applied.
+         *
+         * @param result the URI of an insert, or the row count of an update or delete
+         */
+        void onWriteDone(ContentProviderResult result);
+
+        /**
+         * The write wasn't applied. An {@link OperationApplicationException} means
+         * the provider refused it, e.g. its expected count wasn't met, and it would be refused
+         * again; any other exception, e.g. a full disk or an unreachable provider, may not recur.
+         */
+        void onWriteFailed(Exception e);
+    }
+
+    /** Maximum number of writes applied in one transaction */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static ProductWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+
+    /** Runs the writes, one batch at a time */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Delivers the outcomes on the UI thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Writes waiting for the writer thread. Guarded by itself. */
+    private final ArrayDeque<Write> mPending = new ArrayDeque<>();
+
+    /** Whether the writer thread has been asked to drain {@link #mPending}. Guarded by mPending. */
+    private boolean mDraining = false;
+
+    /** Applies the pending writes until there are none left */
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                List<Write> batch = new ArrayList<>();
+                synchronized (mPending) {
+                    while (!mPending.isEmpty() && batch.size() < MAX_BATCH_SIZE) {
+                        batch.add(mPending.poll());
+                    }
+                    if (batch.isEmpty()) {
+                        mDraining = false;
+                        return;
+                    }
+                }
+                apply(batch);
+            }
+        }
+    };
+
+    /**
+     * The write queue of the app.
+     */
+    public static synchronized ProductWriteQueue get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructs a write queue of its own. The app uses {@link #get}; tests pass a context whose
+     * resolver reaches a provider of their own.
+     */
+    ProductWriteQueue(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Queue a write to the provider.
+     *
+     * @param operation the write
+     * @param callback  told about the outcome, or null if nobody cares
+     */
+    public void enqueue(ContentProviderOperation operation, Callback callback) {
+        synchronized (mPending) {
+            mPending.add(new Write(operation, callback));
+            if (mDraining) {
+                return;
+            }
+            mDraining = true;
+        }
+        mExecutor.execute(mDrain);
+    }
+
+    /**
+     * Apply a batch of writes in one transaction, falling back to one write at a time if it fails.
+     * Runs on the writer thread.
+     */
+    private void apply(List<Write> batch) {
+        try {
+            ContentProviderResult[] results = applyBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                deliver(batch.get(i), results[i], null);
+            }
+            return;
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                Log.e(LOG_TAG, "Write failed " + batch.get(0).operation, e);
+                deliver(batch.get(0), null, e);
+                return;
+            }
+        }
+
+        // The batch was rolled back as a whole: find out which writes fail on their own
+        for (Write write : batch) {
+            List<Write> single = new ArrayList<>(1);
+            single.add(write);
+            apply(single);
+        }
+    }
+
+    private ContentProviderResult[] applyBatch(List<Write> batch) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            operations.add(write.operation);
+        }
+        return mResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, operations);
+    }
+
+    /**
+     * Report the outcome of a write on the UI thread.
+     */
+    private void deliver(final Write write, final ContentProviderResult result, final Exception error) {
+        if (write.callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    write.callback.onWriteDone(result);
+                } else {
+                    write.callback.onWriteFailed(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * A queued write and its callback.
+     */
+    private static final class Write {
+        final ContentProviderOperation operation;
+        final Callback callback;
+
+        Write(ContentProviderOperation operation, Callback callback) {
+            this.operation = operation;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.OrderEntry;
+import com.example.android.inventoryapp.data.ProductContract.OrderItemEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SupplierEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the supplier orders for every product at or below its reorder point.
+ *
+ * The products to reorder come from a single query, sorted by supplier. Its quantity range is
+ * bounded by the highest reorder point, so it's served by the quantity index instead of a scan of
+ * the catalog. The query is read in keyset chunks, since writing the orders changes its results
+ * and an offset would skip rows. Each supplier's order is written as soon as its last product has
+ * been read, so only one supplier's items are held at a time.
+ */
+class ReorderGenerator {
+
+    /** Rows read per query */
+    static final int CHUNK_SIZE = 500;
+
+    /** Products to reorder, grouped by supplier */
+    private static final String SQL_PRODUCTS_TO_REORDER = "SELECT p." + ProductEntry._ID + ", p."
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", p." + ProductEntry.COLUMN_PRODUCT_TARGET_STOCK + " - p."
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", s."
+            + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " FROM " + ProductEntry.TABLE_NAME + " p JOIN " + SupplierEntry.TABLE_NAME + " s ON s."
+            + SupplierEntry._ID + " = p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID
+            + " WHERE p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= (SELECT MAX("
+            + ProductEntry.COLUMN_PRODUCT_REORDER_POINT + ") FROM " + ProductEntry.TABLE_NAME + ")"
+            + " AND p." + ProductEntry.COLUMN_PRODUCT_QUANTITY + " <= p." + ProductEntry.COLUMN_PRODUCT_REORDER_POINT
+            + " AND p." + ProductEntry.COLUMN_PRODUCT_TARGET_STOCK + " > p." + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            // not already waiting on an order that hasn't been sent
+            + " AND NOT EXISTS (SELECT 1 FROM " + OrderItemEntry.TABLE_NAME + " i JOIN " + OrderEntry.TABLE_NAME
+            + " o ON o." + OrderEntry._ID + " = i." + OrderItemEntry.COLUMN_ITEM_ORDER_ID
+            + " WHERE i." + OrderItemEntry.COLUMN_ITEM_PRODUCT_ID + " = p." + ProductEntry._ID
+            + " AND o." + OrderEntry.COLUMN_ORDER_SENT + " = 0)"
+            // after the last row of the previous chunk
+            + " AND (p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " > ? OR (p."
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + " = ? AND p." + ProductEntry._ID + " > ?))"
+            + " ORDER BY p." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_ID + ", p." + ProductEntry._ID
+            + " LIMIT " + CHUNK_SIZE;
+
+    private static final String SQL_INSERT_ORDER = "INSERT INTO " + OrderEntry.TABLE_NAME + " ("
+            + OrderEntry.COLUMN_ORDER_SUPPLIER_ID + ", " + OrderEntry.COLUMN_ORDER_CREATED_AT + ", "
+            + OrderEntry.COLUMN_ORDER_ITEM_COUNT + ", " + OrderEntry.COLUMN_ORDER_TOTAL_QUANTITY + ", "
+            + OrderEntry.COLUMN_ORDER_DOCUMENT + ") VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_INSERT_ITEM = "INSERT INTO " + OrderItemEntry.TABLE_NAME + " ("
+            + OrderItemEntry.COLUMN_ITEM_ORDER_ID + ", " + OrderItemEntry.COLUMN_ITEM_PRODUCT_ID + ", "
+            + OrderItemEntry.COLUMN_ITEM_PRODUCT_NAME + ", " + OrderItemEntry.COLUMN_ITEM_QUANTITY
+            + ") VALUES (?, ?, ?, ?)";
+
+    private final SQLiteDatabase mDatabase;
+
+    /** Items of the supplier being read */
+    private final List<Long> mProductIds = new ArrayList<>();
+    private final List<String> mProductNames = new ArrayList<>();
+    private final List<Integer> mQuantities = new ArrayList<>();
+
+    private SQLiteStatement mInsertOrder;
+    private SQLiteStatement mInsertItem;
+
+    ReorderGenerator(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Create the orders, in a single transaction.
+     *
+     * @param now creation time of the orders, in milliseconds since the epoch
+     * @return the number of orders created
+     */
+    int generate(long now) {
+        int orders = 0;
+        mDatabase.beginTransaction();
+        try {
+            mInsertOrder = mDatabase.compileStatement(SQL_INSERT_ORDER);
+            mInsertItem = mDatabase.compileStatement(SQL_INSERT_ITEM);
+
+            long supplierId = -1;
+            String supplierName = null;
+            long lastId = -1;
+            int rows;
+            do {
+                String[] args = { String.valueOf(supplierId), String.valueOf(supplierId), String.valueOf(lastId) };
+                Cursor cursor = mDatabase.rawQuery(SQL_PRODUCTS_TO_REORDER, args);
+                try {
+                    rows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        if (cursor.getLong(3) != supplierId) {
+                            if (writeOrder(supplierId, supplierName, now)) {
+                                orders++;
+                            }
+                            supplierId = cursor.getLong(3);
+                            supplierName = cursor.getString(4);
+                        }
+                        lastId = cursor.getLong(0);
+                        mProductIds.add(lastId);
+                        mProductNames.add(cursor.getString(1));
+                        mQuantities.add(cursor.getInt(2));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (rows == CHUNK_SIZE);
+            if (writeOrder(supplierId, supplierName, now)) {
+                orders++;
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            if (mInsertOrder != null) {
+                mInsertOrder.close();
+            }
+            if (mInsertItem != null) {
+                mInsertItem.close();
+            }
+            mDatabase.endTransaction();
+            mProductIds.clear();
+            mProductNames.clear();
+            mQuantities.clear();
+        }
+        return orders;
+    }
+
+    /**
+     * Write the order of the items read for a supplier, if there are any, and clear them.
+     */
+    private boolean writeOrder(long supplierId, String supplierName, long now) {
+        int count = mProductIds.size();
+        if (count == 0) {
+            return false;
+        }
+
+        int totalQuantity = 0;
+        StringBuilder document = new StringBuilder("Order for ").append(supplierName).append("\n\n");
+        for (int i = 0; i < count; i++) {
+            int quantity = mQuantities.get(i);
+            totalQuantity += quantity;
+            document.append(quantity).append(" x ").append(mProductNames.get(i)).append('\n');
+        }
+        document.append("\nTotal: ").append(totalQuantity).append(" units in ").append(count).append(" products\n");
+
+        mInsertOrder.bindLong(1, supplierId);
+        mInsertOrder.bindLong(2, now);
+        mInsertOrder.bindLong(3, count);
+        mInsertOrder.bindLong(4, totalQuantity);
+        mInsertOrder.bindString(5, document.toString());
+        long orderId = mInsertOrder.executeInsert();
+
+        for (int i = 0; i < count; i++) {
+            mInsertItem.bindLong(1, orderId);
+            mInsertItem.bindLong(2, mProductIds.get(i));
+            mInsertItem.bindString(3, mProductNames.get(i));
+            mInsertItem.bindLong(4, mQuantities.get(i));
+            mInsertItem.executeInsert();
+        }
+
+        mProductIds.clear();
+        mProductNames.clear();
+        mQuantities.clear();
+        return true;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link SaleCoalescer} collects the SALE taps of each product for a short window and writes them
+ * as one quantity adjustment, through the {@link ProductWriteQueue}. A burst of taps on one row
+ * costs one transaction and one list patch instead of one per tap. The scan entry of the inventory
+ * records its quantity changes here too.
+ *
+ * The taps not written yet are kept in {@link SharedPreferences}, so they survive the process
+ * being killed and are written the next time the app starts. Each adjustment carries a token, kept
+ * with it, that the provider records in the same transaction as the change; an adjustment sent
+ * again because the process died before it was dropped from the preferences is then not applied
+ * twice. The preferences are committed on a background thread, and an adjustment is only sent once
+ * its token has been committed.
+ *
+ * The provider refuses an adjustment as a whole if it would take the stock below zero or above the
+ * maximum quantity. A refused adjustment is dropped, and the listener is told so the product is
+ * shown as stored. An adjustment that fails for any other reason, e.g. a full disk, is kept and
+ * sent again later with the same token, waiting longer after each failure.
+ *
+ * Every method must be called on the UI thread.
+ */
+public final class SaleCoalescer {
+
+    public static final String LOG_TAG = SaleCoalescer.class.getSimpleName();
+
+    /**
+     * Callback for changes of the pending quantity changes.
+     */
+    public interface Listener {
+        /**
+         * The pending quantity change of a product was dropped without being written, so the
+         * quantity shown for it must be read again.
+         */
+        void onPendingChanged(long productId);
+    }
+
+    /** Default time taps are collected for before they're written, in milliseconds */
+    public static final long DEFAULT_WINDOW_MS = 2000;
+
+    /** Time waited before sending a failed adjustment again, doubled after each failure */
+    private static final long FIRST_RETRY_DELAY_MS = 1000;
+
+    /** Longest time waited before sending a failed adjustment again */
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    /**
+     * Preferences file the quantity changes not written yet are kept in, under the key
+     * "product id:token"
+     */
+    private static final String PREFERENCES_NAME = "pending_sales";
+
+    private static SaleCoalescer sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final ProductWriteQueue mWriteQueue;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Commits the preferences, in order, and then sends the adjustments whose tokens were
+     * committed before them
+     */
+    private final ExecutorService mPersister = Executors.newSingleThreadExecutor();
+
+    /** Quantity changes being collected, by product id */
+    private final Map<Long, Adjustment> mPending = new HashMap<>();
+
+    /** Quantity changes being written, by product id. Still shown until they're committed. */
+    private final Map<Long, Integer> mInFlight = new HashMap<>();
+
+    /** Time taps are collected for before they're written */
+    private long mWindowMs = DEFAULT_WINDOW_MS;
+
+    /** Whether a flush has been scheduled */
+    private boolean mFlushScheduled = false;
+
+    private Listener mListener;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    /**
+     * A quantity change of one product and the token it's written with.
+     */
+    private static final class Adjustment {
+        final long productId;
+        final String token;
+        int delta;
+
+        /** Time to wait before sending it again if it fails */
+        long retryDelayMs = FIRST_RETRY_DELAY_MS;
+
+        Adjustment(long productId, String token, int delta) {
+            this.productId = productId;
+            this.token = token;
+            this.delta = delta;
+        }
+
+        /** Preferences key of the adjustment */
+        String getKey() {
+            return productId + ":" + token;
+        }
+    }
+
+    /**
+     * The sale coalescer of the app. The first call writes the taps left over by a killed process.
+     */
+    public static synchronized SaleCoalescer get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SaleCoalescer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SaleCoalescer(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mWriteQueue = ProductWriteQueue.get(context);
+
+        // Taps of a previous process: they're already persisted, write them right away. Those
+        // persisted before the tokens were, under the product id alone, get a token first.
+        List<Adjustment> leftover = new ArrayList<>();
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            String key = entry.getKey();
+            try {
+                int separator = key.indexOf(':');
+                Adjustment adjustment;
+                if (separator == -1) {
+                    adjustment = new Adjustment(Long.parseLong(key), newToken(), (Integer) entry.getValue());
+                    editor.remove(key).putInt(adjustment.getKey(), adjustment.delta);
+                } else {
+                    adjustment = new Adjustment(Long.parseLong(key.substring(0, separator)),
+                            key.substring(separator + 1), (Integer) entry.getValue());
+                }
+                leftover.add(adjustment);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Dropping invalid pending sale " + key, e);
+                editor.remove(key);
+            }
+        }
+        persist(editor);
+        for (Adjustment adjustment : leftover) {
+            mInFlight.put(adjustment.productId, get(mInFlight, adjustment.productId) + adjustment.delta);
+            write(adjustment);
+        }
+    }
+
+    /**
+     * Set the time taps are collected for before they're written.
+     */
+    public void setWindow(long windowMs) {
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Set the callback for pending changes that were dropped, or null.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Record a quantity change of a product, to be written when the window ends.
+     */
+    public void record(long productId, int delta) {
+        Adjustment adjustment = mPending.get(productId);
+        if (adjustment == null) {
+            adjustment = new Adjustment(productId, newToken(), 0);
+            mPending.put(productId, adjustment);
+        }
+        adjustment.delta += delta;
+        persist(mPreferences.edit().putInt(adjustment.getKey(), adjustment.delta));
+
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mWindowMs);
+        }
+    }
+
+    /**
+     * The quantity change of a product recorded but not committed yet, to add to the stored
+     * quantity when it's shown.
+     */
+    public int getPendingDelta(long productId) {
+        Adjustment adjustment = mPending.get(productId);
+        return (adjustment == null ? 0 : adjustment.delta) + get(mInFlight, productId);
+    }
+
+    /**
+     * Write every recorded quantity change now, without waiting for the window to end.
+     */
+    public void flush() {
+        if (mFlushScheduled) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+        }
+        for (Adjustment adjustment : mPending.values()) {
+            if (adjustment.delta == 0) {
+                // Taps that cancel out: nothing to write
+                persist(mPreferences.edit().remove(adjustment.getKey()));
+                continue;
+            }
+            mInFlight.put(adjustment.productId, get(mInFlight, adjustment.productId) + adjustment.delta);
+            write(adjustment);
+        }
+        mPending.clear();
+    }
+
+    /**
+     * Queue the write of an adjustment, once the preferences committed before it are on disk.
+     */
+    private void write(final Adjustment adjustment) {
+        // A refusal fails the write rather than reporting 0 rows, so it's never mistaken for a
+        // success when the queue applies the write in a batch
+        final ContentProviderOperation operation = ContentProviderOperation
+                .newUpdate(ProductEntry.buildAdjustUri(adjustment.productId))
+                .withValue(ProductContract.KEY_DELTA, adjustment.delta)
+                .withValue(ProductContract.KEY_TOKEN, adjustment.token)
+                .withExpectedCount(1)
+                .build();
+        final ProductWriteQueue.Callback callback = new ProductWriteQueue.Callback() {
+            @Override
+            public void onWriteDone(ContentProviderResult result) {
+                onWritten(adjustment, false);
+            }
+
+            @Override
+            public void onWriteFailed(Exception e) {
+                if (e instanceof OperationApplicationException) {
+                    // The expected count wasn't met: the delta would take the stock out of range,
+                    // or the product is gone. Dropped, since retrying a refused write would fail again.
+                    Log.w(LOG_TAG, "Quantity change of " + adjustment.delta + " refused for product "
+                            + adjustment.productId);
+                    onWritten(adjustment, true);
+                    return;
+                }
+                // Not applied, e.g. the disk is full: still shown as pending and kept in the
+                // preferences. Sent again with the same token, so it's applied at most once.
+                Log.w(LOG_TAG, "Quantity change of " + adjustment.delta + " for product "
+                        + adjustment.productId + " failed, retrying in " + adjustment.retryDelayMs + " ms");
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        write(adjustment);
+                    }
+                }, adjustment.retryDelayMs);
+                adjustment.retryDelayMs = Math.min(adjustment.retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+            }
+        };
+        mPersister.execute(new Runnable() {
+            @Override
+            public void run() {
+                mWriteQueue.enqueue(operation, callback);
+            }
+        });
+    }
+
+    /**
+     * Forget an adjustment that has been committed or refused.
+     */
+    private void onWritten(Adjustment adjustment, boolean dropped) {
+        long productId = adjustment.productId;
+        int inFlight = get(mInFlight, productId) - adjustment.delta;
+        if (inFlight == 0) {
+            mInFlight.remove(productId);
+        } else {
+            mInFlight.put(productId, inFlight);
+        }
+        persist(mPreferences.edit().remove(adjustment.getKey()));
+
+        // A committed adjustment shows up with the patched row; a dropped one never will
+        if (dropped && mListener != null) {
+            mListener.onPendingChanged(productId);
+        }
+    }
+
+    /**
+     * Commit preference changes on the persister thread, after those queued before them.
+     */
+    private void persist(final SharedPreferences.Editor editor) {
+        mPersister.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!editor.commit()) {
+                    Log.e(LOG_TAG, "Failed to save the pending sales");
+                }
+            }
+        });
+    }
+
+    private static String newToken() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static int get(Map<Long, Integer> deltas, long productId) {
+        Integer delta = deltas.get(productId);
+        return delta == null ? 0 : delta;
+    }
+}
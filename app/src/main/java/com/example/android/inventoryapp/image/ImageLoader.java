@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.image;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventoryapp.R;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads product images into ImageViews off the UI thread.
+ *
+ * Images kept in the {@link ImageStore} are read from their pregenerated variant. Images that
+ * are still referenced by URI (products saved by older versions of the app) are decoded on a small background pool, downscaled to the size of the loader and kept
+ * in an LRU memory cache bounded in bytes. Downscaled copies are also written to a disk cache, so
+ * a cold start doesn't decode the full-size originals again. Loading into a view cancels the
+ * request previously made for that view, so recycled list rows never show a stale image.
+ */
+public class ImageLoader {
+
+    public static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /** Size of each disk cache, in bytes */
+    private static final long DISK_CACHE_BYTES = 20L * 1024 * 1024;
+
+    /** Quality of the JPEG files in the disk cache */
+    private static final int DISK_CACHE_QUALITY = 85;
+
+    /** Decoding pool, shared by every loader */
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(2);
+
+    private static ImageLoader sThumbnails;
+    private static ImageLoader sDetails;
+
+    private final ContentResolver mResolver;
+    private final ImageStore mStore;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskCacheDir;
+
+    /** {@link ImageStore} variant this loader shows */
+    private final int mVariant;
+
+    /** Maximum edge of the loaded bitmaps */
+    private final int mMaxSize;
+
+    /** Bytes in the disk cache, -1 until measured (on the decoding pool) */
+    private long mDiskBytes = -1;
+
+    /** Disk cache hits, for {@link #getStats()} */
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+
+    /** Full decodes of the original image, for {@link #getStats()} */
+    private final AtomicInteger mDecodes = new AtomicInteger();
+
+    /** Total time spent in full decodes, for {@link #getStats()} */
+    private volatile long mDecodeNanos = 0;
+
+    /**
+     * Loader for the small images in the product list.
+     */
+    public static synchronized ImageLoader thumbnails(Context context) {
+        if (sThumbnails == null) {
+            sThumbnails = new ImageLoader(context.getApplicationContext(), "thumbnails",
+                    ImageStore.VARIANT_LIST, memoryCacheBytes() / 3);
+        }
+        return sThumbnails;
+    }
+
+    /**
+     * Loader for the large image in the product editor.
+     */
+    public static synchronized ImageLoader details(Context context) {
+        if (sDetails == null) {
+            sDetails = new ImageLoader(context.getApplicationContext(), "details",
+                    ImageStore.VARIANT_DETAIL, memoryCacheBytes() * 2 / 3);
+        }
+        return sDetails;
+    }
+
+    /**
+     * Memory shared by the caches of both loaders: an eighth of the heap.
+     */
+    private static int memoryCacheBytes() {
+        return (int) (Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    private ImageLoader(Context context, String name, int variant, int memoryCacheBytes) {
+        mResolver = context.getContentResolver();
+        mStore = ImageStore.get(context);
+        mVariant = variant;
+        mMaxSize = ImageStore.VARIANT_SIZES[variant];
+        mDiskCacheDir = new File(context.getCacheDir(), "images/" + name);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Load the image from the given source (a URI) into the view. Passing an empty source clears
+     * the view. Any earlier request for the same view is cancelled.
+     *
+     * @param source hash of an image in the {@link ImageStore}, or URI of the image
+     * @param view   view to show it in
+     */
+    public void load(String source, ImageView view) {
+        Request previous = (Request) view.getTag(R.id.image_request);
+        if (previous != null) {
+            if (previous.mSource.equals(source) && !previous.isCancelled()) {
+                // Already showing or loading this image
+                return;
+            }
+            previous.cancel();
+            view.setTag(R.id.image_request, null);
+        }
+
+        if (TextUtils.isEmpty(source)) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        Bitmap bitmap = mMemoryCache.get(source);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(source, view);
+        view.setTag(R.id.image_request, request);
+        request.mFuture = sExecutor.submit(request);
+    }
+
+    /**
+     * Memory and disk cache statistics, to tune the cache sizes.
+     */
+    public String getStats() {
+        int decodes = mDecodes.get();
+        return "memory hits " + mMemoryCache.hitCount() + ", memory misses " + mMemoryCache.missCount()
+                + ", disk hits " + mDiskHits.get() + ", decodes " + decodes
+                + ", mean decode ms " + (decodes == 0 ? 0 : mDecodeNanos / decodes / 1000000);
+    }
+
+    /**
+     * Get the downscaled bitmap for a source: its stored variant, or the disk cache or a decode of
+     * the original for images referenced by URI. Runs on the decoding pool.
+     */
+    private Bitmap loadBitmap(String source) {
+        if (ImageStore.isHash(source)) {
+            return BitmapFactory.decodeFile(mStore.getVariant(source, mVariant).getPath());
+        }
+
+        File cached = new File(mDiskCacheDir, diskKey(source));
+        if (cached.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cached.getPath());
+            if (bitmap != null) {
+                mDiskHits.incrementAndGet();
+                cached.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        long start = System.nanoTime();
+        Bitmap bitmap = decodeSampled(Uri.parse(source));
+        if (bitmap == null) {
+            return null;
+        }
+        mDecodeNanos += System.nanoTime() - start;
+        mDecodes.incrementAndGet();
+
+        writeToDisk(cached, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Decode the image behind a URI to the size of this loader. The URI is opened once.
+     */
+    private Bitmap decodeSampled(Uri uri) {
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = mResolver.openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                return null;
+            }
+            return decodeSampled(pfd.getFileDescriptor(), mMaxSize);
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to load image " + uri, e);
+            return null;
+        } finally {
+            if (pfd != null) {
+                try {
+                    pfd.close();
+                } catch (IOException ioe) {
+                    // Nothing left to do with it
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode an image, subsampled while decoding and then scaled so its longest edge is at most
+     * maxSize. The bounds and the pixels are both read from the same file descriptor, whose
+     * position BitmapFactory leaves unchanged.
+     */
+    static Bitmap decodeSampled(FileDescriptor fd, int maxSize) {
+        // Get the dimensions of the bitmap. The descriptor's position isn't changed.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fd, null, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Largest power of two that keeps the image at least as big as needed
+        int sampleSize = 1;
+        int longest = Math.max(options.outWidth, options.outHeight);
+        while (longest / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / longest;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                Math.round(bitmap.getHeight() * scale), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Store a downscaled bitmap in the disk cache, evicting the least recently used files when
+     * the cache grows too big.
+     */
+    private synchronized void writeToDisk(File file, Bitmap bitmap) {
+        if (!mDiskCacheDir.exists() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            File[] files = mDiskCacheDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    mDiskBytes += f.length();
+                }
+            }
+        }
+
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_CACHE_QUALITY, output);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to cache image " + file, e);
+            file.delete();
+            return;
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ioe) {
+                    // The file is checked on read anyway
+                }
+            }
+        }
+        mDiskBytes += file.length();
+
+        if (mDiskBytes > DISK_CACHE_BYTES) {
+            trimDisk();
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the disk cache is down to three quarters of
+     * its size.
+     */
+    private void trimDisk() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (mDiskBytes <= DISK_CACHE_BYTES * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Name of the disk cache file for a source.
+     */
+    private static String diskKey(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(source.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2 + 4);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every platform has SHA-1 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A request to load one image into one view.
+     */
+    private class Request implements Runnable {
+        private final String mSource;
+        private final ImageView mView;
+        private volatile boolean mCancelled = false;
+        private Future<?> mFuture;
+
+        Request(String source, ImageView view) {
+            mSource = source;
+            mView = view;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Cancel the request. Runs on the UI thread.
+         */
+        void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadBitmap(mSource);
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mSource, bitmap);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Only show it if the view is still waiting for this request
+                    if (!mCancelled && mView.getTag(R.id.image_request) == Request.this) {
+                        mView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.inventoryapp.image;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps product images in app storage, addressed by the SHA-256 hash of their content.
+ *
+ * Importing an image copies it out of the picker's provider once, so showing it later doesn't go
+ * through the Storage Access Framework and keeps working if the permission is revoked. Identical
+ * images are stored once. The list and detail sized variants are generated when the image is
+ * imported, so they never have to be decoded from the original again. Images no product refers
+ * to anymore are deleted by {@link #sweep()}.
+ */
+public class ImageStore {
+
+    public static final String LOG_TAG = ImageStore.class.getSimpleName();
+
+    /** Variant shown in the product list */
+    public static final int VARIANT_LIST = 0;
+
+    /** Variant shown in the product editor */
+    public static final int VARIANT_DETAIL = 1;
+
+    /** Longest edge of each variant, in pixels */
+    static final int[] VARIANT_SIZES = { 160, 1024 };
+
+    /** File name suffix of each variant */
+    private static final String[] VARIANT_SUFFIXES = { "_list.jpg", "_detail.jpg" };
+
+    /** Quality of the variant JPEG files */
+    private static final int VARIANT_QUALITY = 85;
+
+    /** Length of a hex encoded SHA-256 hash */
+    private static final int HASH_LENGTH = 64;
+
+    /**
+     * Age a file must reach before a sweep may delete it. An image is imported before the product
+     * that refers to it is written, so a recent file may be about to be referenced.
+     */
+    private static final long SWEEP_MIN_AGE_MILLIS = 60 * 60 * 1000L;
+
+    private static ImageStore sInstance;
+
+    private final Context mContext;
+    private final File mDir;
+
+    /** Set while a sweep started by {@link #sweepInBackground()} runs */
+    private final AtomicBoolean mSweeping = new AtomicBoolean();
+
+    /**
+     * The image store of the app.
+     */
+    public static synchronized ImageStore get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ImageStore(Context context) {
+        mContext = context;
+        mDir = new File(context.getFilesDir(), "images");
+    }
+
+    /**
+     * Whether the given image value is a hash of this store, as opposed to the URI stored by
+     * older versions of the app.
+     */
+    public static boolean isHash(String image) {
+        if (image == null || image.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = image.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * File of a variant of a stored image.
+     *
+     * @param hash    hash of the image
+     * @param variant one of the VARIANT_* constants
+     */
+    public File getVariant(String hash, int variant) {
+        return new File(mDir, hash + VARIANT_SUFFIXES[variant]);
+    }
+
+    /**
+     * Copy an image into the store and generate its variants. Does I/O, so never call it on the
+     * UI thread.
+     *
+     * @param source URI of the image
+     * @return the hash of the image, or null if it couldn't be imported
+     */
+    public String importImage(Uri source) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            Log.e(LOG_TAG, "Failed to create " + mDir);
+            return null;
+        }
+
+        // Copy to a temporary file, hashing on the way
+        File temp = new File(mDir, "import-" + Thread.currentThread().getId() + ".tmp");
+        String hash;
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            input = mContext.getContentResolver().openInputStream(source);
+            if (input == null) {
+                return null;
+            }
+            output = new FileOutputStream(temp);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                output.write(buffer, 0, read);
+            }
+            hash = toHex(digest.digest());
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to import image " + source, e);
+            temp.delete();
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            // Every platform has SHA-256
+            throw new IllegalStateException(e);
+        } finally {
+            closeQuietly(input);
+            closeQuietly(output);
+        }
+
+        // Same content, same file: keep the copy that's already there. It's about to be referenced
+        // again, so it's made recent to keep a sweep from deleting it in the meantime.
+        File original = new File(mDir, hash);
+        if (original.exists()) {
+            temp.delete();
+            long now = System.currentTimeMillis();
+            original.setLastModified(now);
+            for (int variant = 0; variant < VARIANT_SIZES.length; variant++) {
+                getVariant(hash, variant).setLastModified(now);
+            }
+        } else if (!temp.renameTo(original)) {
+            Log.e(LOG_TAG, "Failed to store image " + source);
+            temp.delete();
+            return null;
+        }
+
+        for (int variant = 0; variant < VARIANT_SIZES.length; variant++) {
+            if (!getVariant(hash, variant).exists() && !writeVariant(original, hash, variant)) {
+                return null;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Delete the images no product refers to, along with their variants and any temporary file
+     * left over by an interrupted import. Files younger than {@link #SWEEP_MIN_AGE_MILLIS} are
+     * kept. Does I/O, so never call it on the UI thread.
+     *
+     * @return the number of files deleted
+     */
+    public int sweep() {
+        File[] files = mDir.listFiles();
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+        Set<String> referenced = readReferencedHashes();
+        if (referenced == null) {
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - SWEEP_MIN_AGE_MILLIS;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.lastModified() > cutoff) {
+                continue;
+            }
+            String hash = getHash(file.getName());
+            if (hash != null && referenced.contains(hash)) {
+                continue;
+            }
+            if (file.delete()) {
+                deleted++;
+            } else {
+                Log.e(LOG_TAG, "Failed to delete " + file);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Run a {@link #sweep()} on a background thread, unless one is already running.
+     */
+    public void sweepInBackground() {
+        if (!mSweeping.compareAndSet(false, true)) {
+            return;
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } finally {
+                    mSweeping.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the hashes of the images products refer to. Return null if they can't be read.
+     */
+    private Set<String> readReferencedHashes() {
+        Cursor cursor = mContext.getContentResolver().query(ProductEntry.CONTENT_URI,
+                new String[] { ProductEntry.COLUMN_PRODUCT_IMAGE },
+                ProductEntry.COLUMN_PRODUCT_IMAGE + " IS NOT NULL", null, null);
+        if (cursor == null) {
+            return null;
+        }
+        Set<String> hashes = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                hashes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return hashes;
+    }
+
+    /**
+     * Hash of the image a file of the store belongs to: its original or one of its variants.
+     * Return null for any other file.
+     */
+    private static String getHash(String fileName) {
+        if (fileName.length() < HASH_LENGTH) {
+            return null;
+        }
+        String hash = fileName.substring(0, HASH_LENGTH);
+        if (!isHash(hash)) {
+            return null;
+        }
+        if (fileName.length() == HASH_LENGTH) {
+            return hash;
+        }
+        String suffix = fileName.substring(HASH_LENGTH);
+        for (String variantSuffix : VARIANT_SUFFIXES) {
+            if (variantSuffix.equals(suffix)) {
+                return hash;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Generate one variant from the stored original.
+     */
+    private boolean writeVariant(File original, String hash, int variant) {
+        FileInputStream input = null;
+        Bitmap bitmap;
+        try {
+            input = new FileInputStream(original);
+            bitmap = ImageLoader.decodeSampled(input.getFD(), VARIANT_SIZES[variant]);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read image " + hash, e);
+            return false;
+        } finally {
+            closeQuietly(input);
+        }
+        if (bitmap == null) {
+            Log.e(LOG_TAG, "Failed to decode image " + hash);
+            return false;
+        }
+
+        // Write to a temporary file first, so a half written variant is never picked up
+        File file = getVariant(hash, variant);
+        File temp = new File(mDir, file.getName() + ".tmp");
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, VARIANT_QUALITY, output);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write image " + file, e);
+            temp.delete();
+            return false;
+        } finally {
+            closeQuietly(output);
+            bitmap.recycle();
+        }
+        return temp.renameTo(file);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ioe) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
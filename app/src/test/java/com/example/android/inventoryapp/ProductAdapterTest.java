@@ -0,0 +1,54 @@
+package com.example.android.inventoryapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the allocation free number formatting of the product list.
+ */
+public class ProductAdapterTest {
+
+    private final char[] mBuffer = new char[32];
+
+    private String price(float price) {
+        return new String(mBuffer, 0, ProductAdapter.writePrice(price, mBuffer));
+    }
+
+    @Test
+    public void writePrice_hasTwoDecimalsAndCurrency() {
+        assertEquals("0.00€", price(0f));
+        assertEquals("2.50€", price(2.5f));
+        assertEquals("10.05€", price(10.05f));
+        assertEquals("1234.99€", price(1234.99f));
+    }
+
+    @Test
+    public void writePrice_roundsToCents() {
+        assertEquals("3.46€", price(3.456f));
+        assertEquals("3.45€", price(3.454f));
+        assertEquals("1.00€", price(0.999f));
+    }
+
+    @Test
+    public void writePrice_negative() {
+        assertEquals("-3.46€", price(-3.456f));
+        assertEquals("-0.50€", price(-0.5f));
+        // Rounds to zero cents, so no sign
+        assertEquals("0.00€", price(-0.004f));
+    }
+
+    @Test
+    public void writeInteger_writesDigitsAtOffset() {
+        mBuffer[0] = 'x';
+        int end = ProductAdapter.writeInteger(1234567890123L, mBuffer, 1);
+        assertEquals(14, end);
+        assertEquals("x1234567890123", new String(mBuffer, 0, end));
+    }
+
+    @Test
+    public void writeInteger_zeroAndNegative() {
+        assertEquals("0", new String(mBuffer, 0, ProductAdapter.writeInteger(0, mBuffer, 0)));
+        assertEquals("-42", new String(mBuffer, 0, ProductAdapter.writeInteger(-42, mBuffer, 0)));
+    }
+}
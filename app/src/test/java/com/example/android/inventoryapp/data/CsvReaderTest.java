@@ -0,0 +1,85 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the CSV parsing of the catalog import.
+ */
+public class CsvReaderTest {
+
+    private static CatalogImporter.CsvReader reader(String csv) {
+        return new CatalogImporter.CsvReader(new StringReader(csv));
+    }
+
+    @Test
+    public void plainRecords() throws IOException {
+        CatalogImporter.CsvReader reader = reader("name,quantity\nWidget,5\n");
+        assertEquals(Arrays.asList("name", "quantity"), reader.readRecord());
+        assertEquals(Arrays.asList("Widget", "5"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void lastRecordWithoutLineEnd() throws IOException {
+        CatalogImporter.CsvReader reader = reader("a,b\nc,d");
+        reader.readRecord();
+        assertEquals(Arrays.asList("c", "d"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void emptyFields() throws IOException {
+        assertEquals(Arrays.asList("", "b", ""), reader(",b,\n").readRecord());
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        CatalogImporter.CsvReader reader = reader("\"Widget, blue\",\"Say \"\"hi\"\"\",\"\"\n");
+        assertEquals(Arrays.asList("Widget, blue", "Say \"hi\"", ""), reader.readRecord());
+    }
+
+    @Test
+    public void quoteInsideAnUnquotedFieldIsKept() throws IOException {
+        assertEquals(Arrays.asList("5\" screen", "x"), reader("5\" screen,x\n").readRecord());
+    }
+
+    @Test
+    public void crlfLineEnds() throws IOException {
+        CatalogImporter.CsvReader reader = reader("a,b\r\nc,d\r\n");
+        assertEquals(Arrays.asList("a", "b"), reader.readRecord());
+        assertEquals(Arrays.asList("c", "d"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void newlinesInsideQuotesAreKept() throws IOException {
+        CatalogImporter.CsvReader reader = reader("\"two\nlines\",\"crlf\r\ninside\"\r\nnext,row\n");
+        assertEquals(Arrays.asList("two\nlines", "crlf\r\ninside"), reader.readRecord());
+        assertEquals(1, reader.getLine());
+        assertEquals(Arrays.asList("next", "row"), reader.readRecord());
+        assertEquals(4, reader.getLine());
+    }
+
+    @Test
+    public void lineNumbersOfRecords() throws IOException {
+        CatalogImporter.CsvReader reader = reader("a\nb\r\nc\n");
+        reader.readRecord();
+        assertEquals(1, reader.getLine());
+        reader.readRecord();
+        assertEquals(2, reader.getLine());
+        reader.readRecord();
+        assertEquals(3, reader.getLine());
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedQuote() throws IOException {
+        CatalogImporter.CsvReader reader = reader("a,\"b\nc\n");
+        reader.readRecord();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the full-text MATCH expressions built from search text.
+ */
+public class MatchExpressionTest {
+
+    @Test
+    public void everyWordIsPrefixMatched() {
+        assertEquals("red* apple*", MatchExpression.build("red apple"));
+    }
+
+    @Test
+    public void punctuationSeparatesWords() {
+        assertEquals("USB* C* cable*", MatchExpression.build("  USB-C, \"cable\"  "));
+    }
+
+    @Test
+    public void operatorsAreNotPassedThrough() {
+        assertEquals("a* OR* b*", MatchExpression.build("a OR b*"));
+        assertEquals("name* x*", MatchExpression.build("name:x"));
+    }
+
+    @Test
+    public void digitsAndLettersOutsideAsciiAreKept() {
+        assertEquals("café* 42*", MatchExpression.build("café 42"));
+    }
+
+    @Test
+    public void textWithoutWordsHasNoExpression() {
+        assertNull(MatchExpression.build(null));
+        assertNull(MatchExpression.build(""));
+        assertNull(MatchExpression.build(" -*\"() "));
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the checks on the connection settings.
+ */
+public class ProductDbConfigTest {
+
+    @Test
+    public void defaultSettingsAreValid() {
+        ProductDbConfig config = ProductDbConfig.DEFAULT;
+        assertTrue(config.writeAheadLogging);
+        assertEquals(ProductDbConfig.SYNCHRONOUS_NORMAL, config.synchronous);
+    }
+
+    @Test
+    public void mmapCanBeDisabled() {
+        assertEquals(0, new ProductDbConfig(false, ProductDbConfig.SYNCHRONOUS_FULL, 1, 0).mmapSizeBytes);
+    }
+
+    @Test
+    public void emptyCacheIsRejected() {
+        try {
+            new ProductDbConfig(true, ProductDbConfig.SYNCHRONOUS_NORMAL, 0, 0);
+            fail("A cache of 0 KiB should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("must be positive"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMmapSizeIsRejected() {
+        new ProductDbConfig(true, ProductDbConfig.SYNCHRONOUS_NORMAL, 1024, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSynchronousModeIsRejected() {
+        new ProductDbConfig(true, 3, 1024, 0);
+    }
+}
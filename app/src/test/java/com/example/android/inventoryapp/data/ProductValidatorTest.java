@@ -0,0 +1,54 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the product rules shared by the editor and the catalog import.
+ */
+public class ProductValidatorTest {
+
+    private static int validate(String name, String description, Integer quantity, Float price,
+                                String supplierName, String supplierEmail) {
+        return ProductValidator.validate(name, description, quantity, price, supplierName, supplierEmail);
+    }
+
+    @Test
+    public void completeProductIsValid() {
+        assertEquals(ProductValidator.VALID, validate("Widget", "Blue", 5, 2.5f, "Acme", "acme@example.com"));
+    }
+
+    @Test
+    public void quantityBoundsAreIncluded() {
+        assertEquals(ProductValidator.VALID, validate("Widget", "Blue", ProductValidator.MIN_QUANTITY, 0f,
+                "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.VALID, validate("Widget", "Blue", ProductValidator.MAX_QUANTITY, 0f,
+                "Acme", "acme@example.com"));
+    }
+
+    @Test
+    public void quantityOutOfBounds() {
+        assertEquals(ProductValidator.ERROR_QUANTITY_TOO_HIGH, validate("Widget", "Blue",
+                ProductValidator.MAX_QUANTITY + 1, 2.5f, "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_QUANTITY_TOO_LOW, validate("Widget", "Blue",
+                ProductValidator.MIN_QUANTITY - 1, 2.5f, "Acme", "acme@example.com"));
+    }
+
+    @Test
+    public void missingFields() {
+        assertEquals(ProductValidator.ERROR_NAME_REQUIRED, validate(null, "Blue", 5, 2.5f, "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_NAME_REQUIRED, validate("", "Blue", 5, 2.5f, "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_DESCRIPTION_REQUIRED, validate("Widget", "", 5, 2.5f, "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_QUANTITY_REQUIRED, validate("Widget", "Blue", null, 2.5f, "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_PRICE_REQUIRED, validate("Widget", "Blue", 5, null, "Acme", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_SUPPLIER_NAME_REQUIRED, validate("Widget", "Blue", 5, 2.5f, "", "acme@example.com"));
+        assertEquals(ProductValidator.ERROR_SUPPLIER_EMAIL_REQUIRED, validate("Widget", "Blue", 5, 2.5f, "Acme", null));
+    }
+
+    @Test
+    public void firstBrokenRuleIsReported() {
+        assertEquals(ProductValidator.ERROR_NAME_REQUIRED, validate(null, null, null, null, null, null));
+        assertEquals(ProductValidator.ERROR_QUANTITY_TOO_HIGH, validate("Widget", "Blue", 1000, null, null, null));
+    }
+}